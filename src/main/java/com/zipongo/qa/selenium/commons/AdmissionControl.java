@@ -0,0 +1,97 @@
+package com.zipongo.qa.selenium.commons;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Limit the new session requests in flight, for the whole JVM and by hub, so parallel threads
+ * do not send the hubs more requests than they can schedule.
+ * The waiting requests are served in FIFO order (fair semaphores). A limit of 0 means no limit.
+ */
+class AdmissionControl {
+
+    private final int maxRequests;
+    private final int maxRequestsPerHub;
+    private final Semaphore global;
+    private final Map<URL, Semaphore> byHub = new ConcurrentHashMap<>();
+
+    /**
+     * @param pMaxRequests requests in flight for every hub together, 0 for no limit
+     * @param pMaxRequestsPerHub requests in flight by hub, 0 for no limit
+     */
+    AdmissionControl(int pMaxRequests, int pMaxRequestsPerHub) {
+        this.maxRequests = pMaxRequests;
+        this.maxRequestsPerHub = pMaxRequestsPerHub;
+        this.global = pMaxRequests > 0 ? new Semaphore(pMaxRequests, true) : null;
+    }
+
+    int getMaxRequests() {
+        return maxRequests;
+    }
+
+    int getMaxRequestsPerHub() {
+        return maxRequestsPerHub;
+    }
+
+    /**
+     * Wait for a global permit
+     *
+     * @param pTimeoutMillis longest wait
+     * @return false if no permit was given in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean acquire(long pTimeoutMillis) throws InterruptedException {
+        return global == null || global.tryAcquire(pTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void release() {
+        if (global != null) {
+            global.release();
+        }
+    }
+
+    /**
+     * Wait for a permit of the hub
+     *
+     * @param pHub (URL)
+     * @param pTimeoutMillis longest wait
+     * @return false if no permit was given in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean acquire(URL pHub, long pTimeoutMillis) throws InterruptedException {
+        Semaphore semaphore = hubSemaphore(pHub);
+        return semaphore == null || semaphore.tryAcquire(pTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void release(URL pHub) {
+        Semaphore semaphore = hubSemaphore(pHub);
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+
+    private Semaphore hubSemaphore(URL pHub) {
+        return maxRequestsPerHub > 0 ? byHub.computeIfAbsent(pHub, hub -> new Semaphore(maxRequestsPerHub, true)) : null;
+    }
+
+    /**
+     * Describe the requests in flight and waiting
+     *
+     * @return (String) e.g. "global: 4 / 4 in flight, 3 waiting; http://hub:4444/wd/hub: 2 / 2 in flight, 1 waiting"
+     */
+    String describe() {
+        String globalUsage = global == null ? "global: no limit" :
+                "global: " + describeSemaphore(global, maxRequests);
+        return globalUsage + byHub.entrySet().stream()
+                .map(entry -> "; " + entry.getKey() + ": " + describeSemaphore(entry.getValue(), maxRequestsPerHub))
+                .collect(Collectors.joining());
+    }
+
+    private static String describeSemaphore(Semaphore pSemaphore, int pMax) {
+        return (pMax - pSemaphore.availablePermits()) + " / " + pMax + " in flight, " + pSemaphore.getQueueLength() + " waiting";
+    }
+}
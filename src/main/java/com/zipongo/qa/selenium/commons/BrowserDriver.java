@@ -1,15 +1,14 @@
 package com.zipongo.qa.selenium.commons;
 
+import com.zipongo.qa.selenium.commons.metrics.SeleniumMetrics;
 import cucumber.api.Scenario;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.openqa.selenium.*;
 import org.openqa.selenium.NoSuchElementException;
-import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
-import org.openqa.selenium.firefox.FirefoxDriver;
-import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.firefox.FirefoxOptions;
 import org.openqa.selenium.ie.InternetExplorerDriver;
 import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.logging.LogEntries;
@@ -21,7 +20,9 @@ import org.openqa.selenium.safari.SafariDriver;
 import org.openqa.selenium.safari.SafariOptions;
 import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.Duration;
 import org.openqa.selenium.support.ui.Select;
+import org.openqa.selenium.support.ui.Sleeper;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,8 +30,12 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.security.InvalidParameterException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 
@@ -49,6 +54,15 @@ public class BrowserDriver {
                                       // chrome, phantomjs(local only) and internetexplorer
 
     private static List<String> listOfGridHub; // list of hub to customize grid fallback
+    private static int gridSessionPoolSize = 0; // number of idle grid sessions created ahead of time (0 = no pool)
+    private static int gridConnectTimeoutMillis = 0; // connect timeout of the grid commands (0 = GridFactory default)
+    private static int gridReadTimeoutMillis = 0; // read timeout of the grid commands (0 = GridFactory default)
+    private static int gridConnectionsPerHub = 0; // keep-alive connections to each hub (0 = GridFactory default)
+    private static int gridMaxSessionRequests = 0; // new session requests in flight in the JVM (0 = no limit)
+    private static int gridMaxSessionRequestsPerHub = 0; // new session requests in flight by hub (0 = no limit)
+    private static boolean headless = false; // run chrome and firefox without a display, local and grid
+    private static int headlessWindowWidth = 1920; // window size of the headless browsers
+    private static int headlessWindowHeight = 1080;
     private static boolean includeVideoLink = false; // To add in the cucumber repport the video
                                                      // link (Use only with gridExtras)
 
@@ -72,10 +86,28 @@ public class BrowserDriver {
     public static Scenario scenario; // Use by screenShot to name the png file with the scenario
                                      // name
     private static long defaultTimeoutInSeconds = 30; // Default timeout for BrowserDriver actions
+    private static final long PAGE_LOAD_TIMEOUT_SECONDS = 20; // longest wait of waitForPageLoad
+    private static final long FIND_ELEMENT_TIMEOUT_SECONDS = 5; // per locator of findElement(By...)
+    private static boolean waitForNetworkIdle = false; // waitForPageLoad also waits for the fetch/XMLHttpRequest in flight
+    private static volatile WaitPolicy waitPolicy = WaitPolicy.DEFAULT; // polling of every BrowserDriver wait
+    private static boolean waitInBrowser = true; // element waits run in the browser (DomWait) instead of polling
+    private static boolean elementCache = false; // the helpers reuse the elements found by locator, see ElementCache
 
-    private static int shotNumber = 1; // Use by screenShot
     private static final Logger log = LoggerFactory.getLogger(BrowserDriver.class);
-    private static GridFactory gridFactory;
+
+    // When true, each thread gets its own driver and scenario so scenarios can run in parallel.
+    // mDriver and scenario are only used when it is false.
+    private static boolean sessionPerThread = false;
+    // One GridFactory per hub list (empty for the default hubs), shared by the threads with their connections and pools
+    private static final Map<List<String>, GridFactory> gridFactories = new ConcurrentHashMap<>();
+    private static final BrowserSession sharedSession = new BrowserSession();
+    private static final ThreadLocal<BrowserSession> threadSession = ThreadLocal.withInitial(BrowserSession::new);
+
+    // How long a browser is kept, see DriverScope
+    private static DriverScope driverScope = DriverScope.SCENARIO;
+    // Sessions that opened a browser, closed by the single shutdown hook
+    private static final Set<BrowserSession> openedSessions = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean shutdownHookAdded = new AtomicBoolean(false);
 
     // Implemented this class so that we could have an object which contained both a WebElement
     // and its associated "locator".
@@ -97,16 +129,90 @@ public class BrowserDriver {
 //     * @return Driver object to take action on
 //     * @throws Exception
 //     */
-    public synchronized static WebDriver getCurrentDriver() {
-        if (mDriver == null) {
+    public static WebDriver getCurrentDriver() {
+        if (sessionPerThread) {
+            // Each thread owns its session, no need to lock.
+            return getOrInitDriver();
+        }
+        synchronized (BrowserDriver.class) {
+            return getOrInitDriver();
+        }
+    }
+
+    /**
+     * Start the browser request in background when running on the grid, so a cucumber @Before hook can do
+     * its setup while the session is created. The next getCurrentDriver() joins the request.
+     * Nothing is done when running local or when the browser is already started.
+     */
+    public static void startDriverAsync() {
+        if (sessionPerThread) {
+            startActiveDriverAsync();
+            return;
+        }
+        synchronized (BrowserDriver.class) {
+            startActiveDriverAsync();
+        }
+    }
+
+    private static void startActiveDriverAsync() {
+        if (activeDriver() != null || session().getPendingDriver() != null) {
+            return;
+        }
+        if (whereToRun.equals("grid")) {
+            session().setPendingDriver(requestOnGrid(getOrCreateGridFactory(BrowserDriver.listOfGridHub == null
+                    || BrowserDriver.listOfGridHub.isEmpty())));
+        } else if (whereToRun.equals("localgrid")) {
+            session().setPendingDriver(requestOnGrid(getOrCreateGridFactory(false)));
+        } else {
+            log.info("Browser @" + whereToRun + " is started on first use.");
+        }
+    }
+
+    private static WebDriver getOrInitDriver() {
+        if (activeDriver() == null) {
             initDriver();
 
-            if (mDriver == null) {
+            if (activeDriver() == null) {
                 throw new RuntimeException("Browser Driver Initialization failed..");
             }
         }
 
-        return mDriver;
+        return activeDriver();
+    }
+
+    /**
+     * Return the session of the calling thread in session per thread mode, the shared session otherwise.
+     *
+     * @return (BrowserSession)
+     */
+    private static BrowserSession session() {
+        return sessionPerThread ? threadSession.get() : sharedSession;
+    }
+
+    /**
+     * Return the WebDriver of the calling thread's session without initializing it.
+     *
+     * @return (WebDriver) could be null
+     */
+    private static WebDriver activeDriver() {
+        return sessionPerThread ? threadSession.get().getDriver() : mDriver;
+    }
+
+    private static void setActiveDriver(WebDriver pDriver) {
+        if (sessionPerThread) {
+            threadSession.get().setDriver(pDriver);
+        } else {
+            mDriver = pDriver;
+        }
+    }
+
+    /**
+     * Return the Scenario of the calling thread's session.
+     *
+     * @return (Scenario) could be null
+     */
+    private static Scenario activeScenario() {
+        return sessionPerThread ? threadSession.get().getScenario() : scenario;
     }
 
     /**
@@ -115,91 +221,202 @@ public class BrowserDriver {
      */
     public static WebDriverWait getWebDriverWait()
     {
-        return new WebDriverWait(BrowserDriver.getCurrentDriver(),defaultTimeoutInSeconds);
+        return newWait(BrowserDriver.getCurrentDriver(), defaultTimeoutInSeconds);
+    }
+
+    /**
+     * Return a WebDriverWait object polling with the wait policy, see setWaitPolicy
+     *
+     * @param pTimeoutInSeconds longest wait
+     * @return (WebDriverWait)
+     */
+    public static WebDriverWait getWebDriverWait(long pTimeoutInSeconds)
+    {
+        return newWait(BrowserDriver.getCurrentDriver(), pTimeoutInSeconds);
+    }
+
+    /**
+     * Return a WebDriverWait object polling with pWaitPolicy instead of the wait policy of BrowserDriver
+     *
+     * @param pTimeoutInSeconds longest wait
+     * @param pWaitPolicy (WaitPolicy) e.g. BrowserDriver.getWaitPolicy().withMaxPollMillis(5000) for a slow condition
+     * @return (WebDriverWait)
+     */
+    public static WebDriverWait getWebDriverWait(long pTimeoutInSeconds, WaitPolicy pWaitPolicy)
+    {
+        return pWaitPolicy.newWait(BrowserDriver.getCurrentDriver(), pTimeoutInSeconds);
+    }
+
+    /**
+     * Every wait of BrowserDriver is created here, so they all poll with the same policy
+     */
+    private static WebDriverWait newWait(WebDriver pDriver, long pTimeoutInSeconds) {
+        return waitPolicy.newWait(pDriver, pTimeoutInSeconds);
+    }
+
+    /**
+     * Wait for the condition inside the browser with one command, see DomWait
+     *
+     * @param pObject - A WebElement or a By "locator".
+     * @param pCondition (DomWait.Condition)
+     * @param pTimeout - The maximum number of seconds to wait.
+     * @param pArgs the attribute name, the text or the value the condition needs
+     * @return (boolean) true if the condition holds, false if it cannot be checked in the browser and the caller must poll
+     * @throws TimeoutException if the condition does not hold in time
+     */
+    private static boolean waitInBrowser(Object pObject, DomWait.Condition pCondition, long pTimeout, String... pArgs) {
+        if (!waitInBrowser) {
+            return false;
+        }
+        Boolean met = DomWait.until(getCurrentDriver(), pObject, pCondition, TimeUnit.SECONDS.toMillis(pTimeout), pArgs);
+        if (met == null) {
+            return false;
+        }
+        if (!met) {
+            throw new TimeoutException("Timed out after " + pTimeout + " seconds waiting for " + pCondition + " "
+                    + Arrays.toString(pArgs) + " of " + pObject);
+        }
+        return true;
     }
 
 
     private static void initDriver() {
+        long start = System.currentTimeMillis();
         try {
             log.info("Initializing " + browserName + " browser @" + whereToRun + " ..");
             if (whereToRun.equals("local")) {
                 initLocal();
             } else if (whereToRun.equals("grid")) {
 
-                gridFactory = BrowserDriver.listOfGridHub == null
-                                || BrowserDriver.listOfGridHub.isEmpty() ?
-                                new GridFactory() :
-                                new GridFactory(BrowserDriver.listOfGridHub);
-
-                initOnGrid(gridFactory);
+                initOnGrid(getOrCreateGridFactory(BrowserDriver.listOfGridHub == null
+                                || BrowserDriver.listOfGridHub.isEmpty()));
 
             } else if (whereToRun.equals("localgrid")) {
-                gridFactory = new GridFactory(listOfGridHub);
-                initOnGrid(gridFactory);
+                initOnGrid(getOrCreateGridFactory(false));
             }
 
-             if (mDriver != null) {
-                mDriver.manage().window().maximize();
+             if (activeDriver() != null) {
+                if (headless) {
+                    // a headless browser cannot be maximized, it has no screen
+                    activeDriver().manage().window().setSize(headlessWindowSize());
+                } else {
+                    activeDriver().manage().window().maximize();
+                }
+                // the page readiness script waits in the page, up to this timeout
+                activeDriver().manage().timeouts().setScriptTimeout(PageReadiness.SCRIPT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                SeleniumMetrics.get().histogram("browser.start|" + whereToRun + "|" + browserName)
+                        .record(System.currentTimeMillis() - start);
             }
         } catch (Exception e) {
-            log.error("Browser initialization issue (" + mDriver + ")", e);
-            if (mDriver != null) {
+            log.error("Browser initialization issue (" + activeDriver() + ")", e);
+            if (activeDriver() != null) {
                 try {
-                    mDriver.quit();
-                    mDriver = null;
+                    activeDriver().quit();
+                    setActiveDriver(null);
                 } catch (Exception e2) {
-                    log.info("browser initialization issue recovery failed: cannot cleanup (" + mDriver + ")", e2);
+                    log.info("browser initialization issue recovery failed: cannot cleanup (" + activeDriver() + ")", e2);
                 }
             }
 
             handleException(e, null);
         } finally {
-            if (mDriver != null) {
-                Runtime.getRuntime().addShutdownHook(new Thread(new BrowserCleanup()));
-                log.info("Browser initialized and shutdownHook added: " + mDriver);
+            if (activeDriver() != null) {
+                openedSessions.add(session());
+                if (shutdownHookAdded.compareAndSet(false, true)) {
+                    Runtime.getRuntime().addShutdownHook(new Thread(new BrowserCleanup(), "browser-cleanup"));
+                }
+                log.info("Browser initialized: " + activeDriver());
             }
         }
     }
 
+    /**
+     * Return the GridFactory of the session, taking the one of its hub list the first time.
+     * The factory of a hub list is created once and shared by every thread, only the driver is per thread;
+     * it is kept between browsers so its session pool can be reused.
+     *
+     * @param pDefaultHubs true to use the default hub list instead of listOfGridHub
+     * @return (GridFactory)
+     */
+    private static GridFactory getOrCreateGridFactory(boolean pDefaultHubs) {
+        GridFactory gridFactory = session().getGridFactory();
+        if (gridFactory == null) {
+            List<String> hubs = pDefaultHubs || listOfGridHub == null ? Collections.emptyList() : new ArrayList<>(listOfGridHub);
+            gridFactory = gridFactories.computeIfAbsent(hubs, BrowserDriver::createGridFactory);
+            session().setGridFactory(gridFactory);
+        }
+        return gridFactory;
+    }
+
+    /**
+     * @param pHubs (List<String>) empty for the default hub list
+     * @return (GridFactory) configured with the grid settings
+     */
+    private static GridFactory createGridFactory(List<String> pHubs) {
+        GridFactory gridFactory = pHubs.isEmpty() ? new GridFactory() : new GridFactory(pHubs);
+        if (gridConnectTimeoutMillis > 0 || gridReadTimeoutMillis > 0 || gridConnectionsPerHub > 0) {
+            gridFactory.setCommandHttpClient(gridConnectTimeoutMillis, gridReadTimeoutMillis, gridConnectionsPerHub);
+        }
+        if (gridSessionPoolSize > 0) {
+            gridFactory.enableSessionPool(gridSessionPoolSize);
+        }
+        if (headless) {
+            gridFactory.setHeadless(headlessWindowSize());
+        }
+        return gridFactory;
+    }
+
     private static void initLocal() throws Exception {
         if (browserName.equals("firefox")) {
             log.info("Initiating local Firefox.");
-            FirefoxProfile profile = new FirefoxProfile();
+            Map<String, Object> preferences = new HashMap<>();
+            List<File> extensions = new ArrayList<>();
             File file = new File(System.getProperty("user.dir"));
             log.info("Setting download destination: " + file);
             if (firefoxDebugFlag) {
-                profile.addExtension(new File(pathToFirebug));
-                profile.addExtension(new File(pathToFirepath));
-                profile.setPreference("extensions.firebug.currentVersion", "2.0.1");
-                profile.setPreference("extensions.firebug.onByDefault", true);
-                profile.setPreference("extensions.firebug.defaultPanelName", "net");
-                profile.setPreference("extensions.firebug.net.enableSites", true);
-            }
-            profile.setPreference("security.mixed_content.block_active_content", false);
-            profile.setPreference("browser.download.folderList", 2);
-            profile.setPreference("browser.download.manager.showWhenStarting", false);
-            profile.setPreference("browser.download.dir", file.getParent());
-            profile.setAcceptUntrustedCertificates (true);
-            profile.setAssumeUntrustedCertificateIssuer(true);
-
-            profile.setPreference("browser.helperApps.neverAsk.saveToDisk",
+                extensions.add(new File(pathToFirebug));
+                extensions.add(new File(pathToFirepath));
+                preferences.put("extensions.firebug.currentVersion", "2.0.1");
+                preferences.put("extensions.firebug.onByDefault", true);
+                preferences.put("extensions.firebug.defaultPanelName", "net");
+                preferences.put("extensions.firebug.net.enableSites", true);
+            }
+            preferences.put("security.mixed_content.block_active_content", false);
+            preferences.put("browser.download.folderList", 2);
+            preferences.put("browser.download.manager.showWhenStarting", false);
+            preferences.put("browser.download.dir", file.getParent());
+
+            preferences.put("browser.helperApps.neverAsk.saveToDisk",
                     "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet;" + "application/pdf;"
                             + "application/vnd.openxmlformats-officedocument.wordprocessingml.document;" + "text/plain;" + "text/csv;"
                             + "application/vnd.ms-excel;" + "application/x-excel;" + "application/x-msexcel;" + "application/excel;");
 
+            // geckodriver reads the profile from moz:firefoxOptions only, RemoteWebDriver does not move it there.
+            // The profile is built and encoded once, see FirefoxProfileCache
+            Map<String, Object> firefoxOptions = new HashMap<>();
+            firefoxOptions.put("profile", FirefoxProfileCache.getEncodedProfile(preferences, extensions));
             DesiredCapabilities cap = DesiredCapabilities.firefox();
             cap.setCapability(CapabilityType.ACCEPT_SSL_CERTS, true);
             cap.setCapability("acceptInsecureCerts", true);
-            cap.setCapability("firefox_profile", profile);
-            System.setProperty(FirefoxDriver.SystemProperty.DRIVER_USE_MARIONETTE,"true");
+            cap.setCapability(FirefoxOptions.FIREFOX_OPTIONS, firefoxOptions);
+            if (headless) {
+                HeadlessMode.addTo(cap, headlessWindowSize());
+            }
             System.setProperty("webdriver.gecko.driver", pathToGecko);
-            mDriver = new FirefoxDriver(cap);
+            // the session is created on the geckodriver kept running for the JVM
+            setActiveDriver(new RemoteWebDriver(LocalDriverServices.gecko(pathToGecko), cap));
         }
         else if (browserName.equals("chrome")) {
             System.setProperty("webdriver.chrome.driver", pathToChrome);
             ChromeOptions o = new ChromeOptions();
             o.addArguments("allow-running-insecure-content");
-            mDriver = new ChromeDriver(o);
+            if (headless) {
+                HeadlessMode.addTo(o, headlessWindowSize());
+            }
+            DesiredCapabilities cap = DesiredCapabilities.chrome();
+            cap.setCapability(ChromeOptions.CAPABILITY, o);
+            // the session is created on the chromedriver kept running for the JVM
+            setActiveDriver(new RemoteWebDriver(LocalDriverServices.chrome(pathToChrome), cap));
         }
         else if (browserName.equals("safari")) {
             SafariOptions options = new SafariOptions();
@@ -210,49 +427,70 @@ public class BrowserDriver {
 
             capability.setCapability(CapabilityType.ACCEPT_SSL_CERTS, true);
             capability.setCapability(SafariOptions.CAPABILITY, options);
-            mDriver = new SafariDriver(capability);
+            setActiveDriver(new SafariDriver(capability));
         }
         else {
-            mDriver = new InternetExplorerDriver();
+            setActiveDriver(new InternetExplorerDriver());
         }
     }
 
 
     private static void initOnGrid(GridFactory pGridFactory) throws GridFactoryException {
+        // use the request started by startDriverAsync if there is one
+        CompletableFuture<WebDriver> request = session().getPendingDriver();
+        session().setPendingDriver(null);
+        if (request == null) {
+            request = requestOnGrid(pGridFactory);
+        }
+        try {
+            setActiveDriver(request.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof GridFactoryException) {
+                throw (GridFactoryException) e.getCause();
+            }
+            throw e;
+        }
+
+        if (activeDriver() != null) {
+            setActiveDriver(new Augmenter().augment(activeDriver()));
+
+        scenarioPrintGridInfo();
+
+        }
+
+    }
+
+    /**
+     * Request the browser from the grid without waiting for it
+     *
+     * @param pGridFactory (GridFactory)
+     * @return (CompletableFuture<WebDriver>)
+     */
+    private static CompletableFuture<WebDriver> requestOnGrid(GridFactory pGridFactory) {
         if (browserName.equals("firefox")) {
             log.info("Initiating Firefox grid");
-            FirefoxProfile profile = new FirefoxProfile();
+            Map<String, Object> preferences = new HashMap<>();
             File file = new File(System.getProperty("user.dir"));
-            profile.setAcceptUntrustedCertificates (true);
-            profile.setAssumeUntrustedCertificateIssuer(true);
             log.info("Setting download destination: " + file);
-            profile.setPreference("browser.download.folderList", 2);
-            profile.setPreference("browser.download.manager.showWhenStarting", false);
-            profile.setPreference("browser.download.dir", file.getParent().toString());
-            profile.setPreference("browser.helperApps.neverAsk.saveToDisk",
+            preferences.put("browser.download.folderList", 2);
+            preferences.put("browser.download.manager.showWhenStarting", false);
+            preferences.put("browser.download.dir", file.getParent().toString());
+            preferences.put("browser.helperApps.neverAsk.saveToDisk",
                     "image/jpg,text/csv,text/xml,application/xml,application/vnd.ms-excel,application/x-excel,application/x-msexcel,application/excel,application/pdf");
-            profile.setPreference("security.mixed_content.block_active_content", false);
-            mDriver = pGridFactory.getFirefoxInstance(profile);
+            preferences.put("security.mixed_content.block_active_content", false);
+            return pGridFactory.getFirefoxInstanceFromTemplateAsync(preferences);
         }
         else if (browserName.equals("chrome")) {
             ChromeOptions o = new ChromeOptions();
             o.addArguments("allow-running-insecure-content");
-            mDriver = pGridFactory.getChromeInstance(o);
+            return pGridFactory.getChromeInstanceAsync(o);
         }
         else if (browserName.equalsIgnoreCase("safari")) {
-            mDriver = pGridFactory.getSafariInstance();
+            return pGridFactory.getSafariInstanceAsync();
         }
         else {
-            mDriver = pGridFactory.getInternetExplorerInstance();
-        }
-
-        if (mDriver != null) {
-            mDriver = new Augmenter().augment(mDriver);
-
-        scenarioPrintGridInfo();
-
+            return pGridFactory.getInternetExplorerInstanceAsync();
         }
-
     }
 
     /**
@@ -265,9 +503,9 @@ public class BrowserDriver {
         loadPage(url);
 
         try {
-            new WebDriverWait(mDriver, defaultTimeoutInSeconds)
+            newWait(activeDriver(), defaultTimeoutInSeconds)
                     .until(new TitleMatchExpected(title));
-            assertEquals(title, mDriver.getTitle());
+            assertEquals(title, activeDriver().getTitle());
 
         } catch (Exception e) {
             handleException(e, "loadPage");
@@ -284,6 +522,7 @@ public class BrowserDriver {
 
         try {
             scenarioPrintText("Opening " + browserName + " with: <a href='" + url + "'>" + url + "</a>");
+            clearElementCache();
             getCurrentDriver().get(url);
         } catch (Exception e) {
             handleException(e, "loadPage");
@@ -295,6 +534,7 @@ public class BrowserDriver {
 
         try {
             scenarioPrintText("Navigate to : <a href='" + url + "'>" + url + "</a>");
+            clearElementCache();
             BrowserDriver.getCurrentDriver().navigate().to(url);
         } catch (Exception e) {
             handleException(e, "navigateTo");
@@ -302,35 +542,61 @@ public class BrowserDriver {
     }
 
     /**
-     * wait a max of 20 seconds for page load. Until document.readyState = complete
+     * wait a max of 20 seconds for page load. Until document.readyState = complete,
+     * and no fetch/XMLHttpRequest in flight if setWaitForNetworkIdle(true).
+     * Returns as soon as the page is ready, see PageReadiness.
      */
     public static void waitForPageLoad() {
-        String state = "NA";
-        int counter = 0;
-        getCurrentDriver();
-        if (mDriver != null) {
-            do {
-                try {
-                    state = (String) ((JavascriptExecutor) mDriver).executeScript("return document.readyState");
-                    Thread.sleep(1000);
-                } catch (Exception e) {
-                    handleException(e, "waitForPageLoad");
-                }
-                counter++;
-                log.info(("Browser state is: " + state));
-            } while (!state.equalsIgnoreCase("complete") && counter < 20);
-        }
+        waitForPage("waitForPageLoad", PAGE_LOAD_TIMEOUT_SECONDS, waitForNetworkIdle, null);
+    }
+
+    /**
+     * wait a max of 20 seconds for page load and for no fetch/XMLHttpRequest in flight during 500 ms.
+     * The requests are counted from the first wait on the page.
+     */
+    public static void waitForNetworkIdle() {
+        waitForPage("waitForNetworkIdle", PAGE_LOAD_TIMEOUT_SECONDS, true, null);
     }
 
     /**
-     * Wait for the spinner
+     * Wait for the page load and the spinner (id "loading") to be hidden
+     *
+     * @param waitInMilliSeconds optional timeout, in seconds despite its name (default timeout if missing)
      */
     public static void waitForStudyBluePageLoad(Integer... waitInMilliSeconds)
     {
-        if (waitInMilliSeconds.length == 0)
-            waitForElementNotVisible(By.id("loading"));
-        else
-            waitForElementNotVisible(By.id("loading"),waitInMilliSeconds[0]);
+        long timeout = waitInMilliSeconds.length == 0 ? defaultTimeoutInSeconds : waitInMilliSeconds[0];
+        String state = waitForPage("waitForStudyBluePageLoad", timeout, waitForNetworkIdle, "#loading");
+        if (state.contains("spinner visible")) {
+            handleException(new TimeoutException("The spinner is still visible after " + timeout + " seconds ("
+                    + state + ")"), "waitForStudyBluePageLoad");
+        }
+    }
+
+    /**
+     * @return (String) PageReadiness.READY, or the state of the page at the timeout
+     */
+    private static String waitForPage(String pName, long pTimeoutInSeconds, boolean pNetworkIdle, String pSpinnerSelector) {
+        WebDriver driver = getCurrentDriver();
+        if (driver == null) {
+            return PageReadiness.READY;
+        }
+        long start = System.currentTimeMillis();
+        String state = "NA";
+        try {
+            state = PageReadiness.waitUntilReady(driver, TimeUnit.SECONDS.toMillis(pTimeoutInSeconds),
+                    pNetworkIdle, pSpinnerSelector);
+        } catch (WebDriverException e) {
+            handleException(e, pName);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        SeleniumMetrics.get().histogram("page.ready|" + pName).record(elapsed);
+        if (PageReadiness.READY.equals(state)) {
+            log.debug(pName + ": page ready in " + elapsed + " ms");
+        } else {
+            log.info(pName + ": page not ready after " + pTimeoutInSeconds + " seconds (" + state + ")");
+        }
+        return state;
     }
 
     /**
@@ -339,7 +605,7 @@ public class BrowserDriver {
      */
     public static WebDriver waitForAlert()
     {
-        new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds).until
+        newWait(getCurrentDriver(), defaultTimeoutInSeconds).until
                 (ExpectedConditions.alertIsPresent());
 
         return getCurrentDriver();
@@ -353,9 +619,10 @@ public class BrowserDriver {
      */
     public static String getCurrentURL() {
         // (DPA) Validating that mDriver is defined.
-        if (mDriver != null) {
+        WebDriver driver = activeDriver();
+        if (driver != null) {
             BrowserDriver.waitForPageLoad();
-            return mDriver.getCurrentUrl();
+            return driver.getCurrentUrl();
         } else {
             log.error("getCurrentURL(); WebDriver is not instantiated!");
             return "";
@@ -368,6 +635,7 @@ public class BrowserDriver {
     public static void refresh() {
         log.info("Refreshing the browser");
         try {
+            clearElementCache();
             getCurrentDriver().navigate().refresh();
         } catch (Exception e) {
             handleException(e, "refresh");
@@ -396,18 +664,19 @@ public class BrowserDriver {
      */
     public static void screenShot(String text) {
         try {
-            if (mDriver == null) {
+            WebDriver driver = activeDriver();
+            if (driver == null) {
                 log.info("Failed to take a snapshot because Driver was NULL.");
                 return;
             }
-            if (scenario == null) {
-                File srcFile = ((TakesScreenshot) mDriver).getScreenshotAs(OutputType.FILE);
-                FileUtils.copyFile(srcFile, new File("./target/" + shotNumber + "_" + text + ".png"));
-                shotNumber++;
+            Scenario currentScenario = activeScenario();
+            if (currentScenario == null) {
+                File srcFile = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
+                FileUtils.copyFile(srcFile, new File("./target/" + session().nextShotNumber() + "_" + text + ".png"));
                 log.error("Scenario is NULL while taking screenshot!!!");
             } else {
-                byte[] srcBytes = ((TakesScreenshot) mDriver).getScreenshotAs(OutputType.BYTES);
-                scenario.embed(srcBytes, "image/png");
+                byte[] srcBytes = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+                currentScenario.embed(srcBytes, "image/png");
             }
         } catch (Exception e) {
             log.error("Exception while taking snapshot: ", ExceptionUtils.getRootCauseMessage(e));
@@ -419,8 +688,9 @@ public class BrowserDriver {
      * Embed in the cucumber scenario the Grid hub, the grid info Hub, node, session-id and capability
      */
     private static void scenarioPrintGridInfo() {
+        GridFactory gridFactory = session().getGridFactory();
         if (gridFactory != null) {
-            String hub = "<b>Hub:</b> <span id=hub>" + gridFactory.getCurrentHub() + "</span><br>";
+            String hub = "<b>Hub:</b> <span id=hub>" + gridFactory.getHub(activeDriver()) + "</span><br>";
             String capability = "<b>Capabilities:</b> <span id=capabilities>" + getCapabilities() + "</span><br>";
             scenarioPrintToggleText("Grid info:", hub + capability);
             }
@@ -448,12 +718,13 @@ public class BrowserDriver {
      */
     private static void scenarioPrintToggleText(String pTitle, String pText) {
 
-        if (scenario != null) {
+        Scenario currentScenario = activeScenario();
+        if (currentScenario != null) {
             String unicId = UUID.randomUUID().toString();
             String html = "<a onclick=\"toggleDiv=document.getElementById('" + unicId
                     + "'); toggleDiv.style.display = (toggleDiv.style.display == 'none' ? 'block' : 'none');return false\" href=\"\">" + pTitle + "</a>"
                     + "<div id=\"" + unicId + "\" style=\"display:none ; white-space: pre-wrap; word-break:break-all'\">" + pText + "</div><br>";
-            scenario.write(html);
+            currentScenario.write(html);
         }
     }
 
@@ -476,8 +747,9 @@ public class BrowserDriver {
      */
     public static void scenarioPrintText(String pText) {
 
-        if (scenario != null) {
-            scenario.write(pText + "<br>");
+        Scenario currentScenario = activeScenario();
+        if (currentScenario != null) {
+            currentScenario.write(pText + "<br>");
 
         }
     }
@@ -489,8 +761,9 @@ public class BrowserDriver {
      */
     public static String getCapabilities() {
         String result = null;
-        if (mDriver != null) {
-            result = ((RemoteWebDriver) mDriver).getCapabilities().toString();
+        WebDriver driver = activeDriver();
+        if (driver != null) {
+            result = ((RemoteWebDriver) driver).getCapabilities().toString();
         }
         return result;
     }
@@ -598,7 +871,7 @@ public class BrowserDriver {
             WebElementAndLocator weal = getWebElementAndLocator(locator);
 
             // Clicking on the WebElement when it is clickable.
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds);
+            WebDriverWait wait = newWait(getCurrentDriver(), defaultTimeoutInSeconds);
             wait.until(ExpectedConditions.elementToBeClickable(weal.webElement)).click();
 
             // Logging.
@@ -624,7 +897,7 @@ public class BrowserDriver {
             WebElementAndLocator weal = getWebElementAndLocator(pObject);
 
             WebDriver driver = getCurrentDriver();
-            WebDriverWait wait = new WebDriverWait(driver, defaultTimeoutInSeconds);
+            WebDriverWait wait = newWait(driver, defaultTimeoutInSeconds);
             wait.until(ExpectedConditions.elementToBeClickable(weal.webElement));
 
             JavascriptExecutor js = (JavascriptExecutor) driver;
@@ -688,7 +961,7 @@ public class BrowserDriver {
     } // scrollIntoView()
 
     private static void scrollIntoView(WebElement element) {
-        ((JavascriptExecutor) mDriver).executeScript("arguments[0].scrollIntoView(true);", element);
+        ((JavascriptExecutor) activeDriver()).executeScript("arguments[0].scrollIntoView(true);", element);
     }
 
     private static String getCurrentHandle()
@@ -698,6 +971,7 @@ public class BrowserDriver {
 
     public static WebDriver switchToFrame(String frame)
     {
+        clearElementCache();
         return BrowserDriver.getCurrentDriver().switchTo().window(frame);
     }
 
@@ -738,22 +1012,32 @@ public class BrowserDriver {
     }
 
     /**
-     * Close the browser
+     * Shutdown hook quitting the browsers of every session still open, then closing their GridFactory
      */
     private static class BrowserCleanup implements Runnable {
+
         @Override
         public void run() {
 
             if (!firefoxDebugFlag) {
-                log.info("Closing the browser");
-
-                try {
-                    close();
-                } catch (Exception e) {
-                    // log.error(ExceptionUtils.getRootCauseMessage(e));
-                    // screenShot("BrowserCleanup");
-                    handleException(e, "BrowserCleanup");
+                log.info("Closing the browsers");
+
+                for (BrowserSession browserSession : openedSessions) {
+                    try {
+                        if (browserSession == sharedSession) {
+                            quit();
+                        } else {
+                            browserSession.quit();
+                        }
+                    } catch (Exception e) {
+                        // log.error(ExceptionUtils.getRootCauseMessage(e));
+                        // screenShot("BrowserCleanup");
+                        handleException(e, "BrowserCleanup");
+                    }
                 }
+                // the drivers are quit before their factory closes its connections
+                gridFactories.values().forEach(GridFactory::close);
+                LocalDriverServices.stopAll();
             }
         }
     }
@@ -1111,22 +1395,73 @@ public class BrowserDriver {
     }
 
     /**
-     * Closing the browser.
+     * Closing the browser at the end of a scenario.
+     * With the FEATURE or SUITE scope the browser is only reset (windows, storage, cookies, page)
+     * and kept for the next scenario, unless the reset fails.
+     */
+    public static void close() {
+        if (sessionPerThread) {
+            endScenario();
+            return;
+        }
+        synchronized (BrowserDriver.class) {
+            endScenario();
+        }
+    } // close()
+
+    /**
+     * Closing the browser whatever the scope.
      */
-    public static synchronized void close() {
+    public static void quit() {
+        if (sessionPerThread) {
+            closeActiveDriver();
+            return;
+        }
+        synchronized (BrowserDriver.class) {
+            closeActiveDriver();
+        }
+    }
+
+    private static void endScenario() {
+        WebDriver driver = activeDriver();
+        if (driverScope != DriverScope.SCENARIO && driver != null) {
+            if (SessionPool.resetSession(driver)) {
+                // the elements of the last page are gone
+                clearElementCache();
+                log.info("browser reset and kept for the next scenario (" + driverScope + " scope)");
+                return;
+            }
+            log.info("browser reset failed, closing it");
+        }
+        closeActiveDriver();
+    }
+
+    private static void closeActiveDriver() {
+        WebDriver driver = activeDriver();
+        clearElementCache();
+        CompletableFuture<WebDriver> pendingDriver = session().getPendingDriver();
+        if (pendingDriver != null) {
+            // the GridFactory gives back the browser when it arrives
+            pendingDriver.cancel(false);
+            session().setPendingDriver(null);
+        }
         try {
-            if (mDriver == null) {
+            GridFactory gridFactory = session().getGridFactory();
+            if (driver == null) {
                 log.info("browser already closed");
+            } else if (gridFactory != null && gridFactory.releaseBrowser(driver)) {
+                setActiveDriver(null);
+                log.info("browser returned to the grid session pool");
             } else {
-                log.info("closing " + mDriver + " ..");
-                mDriver.quit();
-                mDriver = null;
+                log.info("closing " + driver + " ..");
+                driver.quit();
+                setActiveDriver(null);
                 log.info("browser closed");
             }
         } catch (Exception e) {
-            log.error("cannot close browser: " + mDriver, e);
+            log.error("cannot close browser: " + driver, e);
         }
-    } // close()
+    }
 
     /**
      * Wait for element and fail assertion if it doesn't show up in time.
@@ -1170,8 +1505,10 @@ public class BrowserDriver {
 
             log.info("Waiting a maximum of {} seconds for the WebElement defined as {} to be present.", pTimeout, locator);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(ExpectedConditions.presenceOfElementLocated(byElement));
+            if (!waitInBrowser(pObject, DomWait.Condition.PRESENT, pTimeout)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(ExpectedConditions.presenceOfElementLocated(byElement));
+            }
 
             result = true;
         } catch (Exception e) {
@@ -1207,7 +1544,7 @@ public class BrowserDriver {
                 // "wait.until()" with a WebElement runs the risk of encountering a StaleElementReferenceException.
 
                 // Checking whether or not the WebElement is clickable.
-                WebDriverWait wait = new WebDriverWait(getCurrentDriver(), timeLeft);
+                WebDriverWait wait = newWait(getCurrentDriver(), timeLeft);
                 if (pObject instanceof By) {
                     locator = getByLocator((By) pObject);
                     wait.until(ExpectedConditions.elementToBeClickable((By) pObject));
@@ -1290,8 +1627,10 @@ public class BrowserDriver {
 
             log.info("Waiting a maximum of {} seconds for the WebElement defined as {} to be visible.", pTimeout, locator);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(ExpectedConditions.visibilityOfElementLocated(byElement));
+            if (!waitInBrowser(pObject, DomWait.Condition.VISIBLE, pTimeout)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(ExpectedConditions.visibilityOfElementLocated(byElement));
+            }
         } catch (Exception e) {
             handleException(e, "waitForElementVisible");
         }
@@ -1326,8 +1665,10 @@ public class BrowserDriver {
 
             log.info("Waiting a maximum of {} seconds for the WebElement defined as {} to be not visible.", pTimeout, locator);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(ExpectedConditions.invisibilityOfElementLocated(byElement));
+            if (!waitInBrowser(pObject, DomWait.Condition.NOT_VISIBLE, pTimeout)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(ExpectedConditions.invisibilityOfElementLocated(byElement));
+            }
         } catch (Exception e) {
             handleException(e, "waitForElementNotVisible");
         }
@@ -1352,6 +1693,14 @@ public class BrowserDriver {
      * @return (boolean) - Whether or not the elements are all not visible.
      */
     public static boolean waitForElementsNotVisible(By pLocator, long pTimeout) {
+        try {
+            if (waitInBrowserForAll(pLocator, DomWait.ElementsState.NOT_VISIBLE, pTimeout) != null) {
+                return true;
+            }
+        } catch (TimeoutException e) {
+            return false;
+        }
+
         boolean isVisible = false;
 
         // Revamped this method to check the time properly and to not call
@@ -1359,12 +1708,13 @@ public class BrowserDriver {
 
         long startTime = (new Date()).getTime();
         List<WebElement> lElements = BrowserDriver.findElements(pLocator);
+        Sleeper sleeper = waitPolicy.newSleeper();
 
         for (WebElement element : lElements) {
             isVisible = isElementVisible(element);
             while (isVisible) {
                 try {
-                    Thread.sleep(250);
+                    sleeper.sleep(new Duration(waitPolicy.getMaxPollMillis(), TimeUnit.MILLISECONDS));
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
@@ -1429,8 +1779,10 @@ public class BrowserDriver {
                         + " seconds.");
 
                 // Waiting for the text to be present in the WebElement.
-                WebDriverWait wait = new WebDriverWait(getCurrentDriver(), timeLeft);
-                wait.until(ExpectedConditions.textToBePresentInElement(weal.webElement, pString));
+                if (!waitInBrowser(pObject, DomWait.Condition.TEXT_PRESENT, timeLeft, pString)) {
+                    WebDriverWait wait = newWait(getCurrentDriver(), timeLeft);
+                    wait.until(ExpectedConditions.textToBePresentInElement(weal.webElement, pString));
+                }
             } else {
                 throw new TimeoutException();
             }
@@ -1466,23 +1818,25 @@ public class BrowserDriver {
 
                 log.info("Waiting a maximum of {} seconds for attribute {} to be present in the WebElement defined as {}.", pTimeout, pAttribute, weal.locator);
 
-                WebDriverWait wait = new WebDriverWait(getCurrentDriver(), timeLeft);
-                wait.until(new ExpectedCondition<Boolean>() {
-                    private WebElement webElement;
-                    private String attribute;
+                if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_PRESENT, timeLeft, pAttribute)) {
+                    WebDriverWait wait = newWait(getCurrentDriver(), timeLeft);
+                    wait.until(new ExpectedCondition<Boolean>() {
+                        private WebElement webElement;
+                        private String attribute;
 
-                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
-                        this.webElement = pWebElement;
-                        this.attribute = pAttribute;
+                        private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
+                            this.webElement = pWebElement;
+                            this.attribute = pAttribute;
 
-                        return this;
-                    }
+                            return this;
+                        }
 
-                    @Override
-                    public Boolean apply(WebDriver webDriver) {
-                        return isAttributePresent(webElement, attribute, false);
-                    }
-                }.init(weal.webElement, pAttribute));
+                        @Override
+                        public Boolean apply(WebDriver webDriver) {
+                            return isAttributePresent(webElement, attribute, false);
+                        }
+                    }.init(weal.webElement, pAttribute));
+                }
             } else {
                 throw new NoSuchElementException("Attribute '" + pAttribute + "' is not present because its element is " + "not present.");
             }
@@ -1526,23 +1880,25 @@ public class BrowserDriver {
                 log.info("Waiting a maximum of {} seconds for attribute {} to not be present in the WebElement defined as {}.", pTimeout, pAttribute,
                         weal.locator);
 
-                WebDriverWait wait = new WebDriverWait(getCurrentDriver(), timeLeft);
-                wait.until(new ExpectedCondition<Boolean>() {
-                    private WebElement webElement;
-                    private String attribute;
+                if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_NOT_PRESENT, timeLeft, pAttribute)) {
+                    WebDriverWait wait = newWait(getCurrentDriver(), timeLeft);
+                    wait.until(new ExpectedCondition<Boolean>() {
+                        private WebElement webElement;
+                        private String attribute;
 
-                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
-                        this.webElement = pWebElement;
-                        this.attribute = pAttribute;
+                        private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
+                            this.webElement = pWebElement;
+                            this.attribute = pAttribute;
 
-                        return this;
-                    }
+                            return this;
+                        }
 
-                    @Override
-                    public Boolean apply(WebDriver webDriver) {
-                        return !isAttributePresent(webElement, attribute, false);
-                    }
-                }.init(weal.webElement, pAttribute));
+                        @Override
+                        public Boolean apply(WebDriver webDriver) {
+                            return !isAttributePresent(webElement, attribute, false);
+                        }
+                    }.init(weal.webElement, pAttribute));
+                }
             } else {
                 throw new NoSuchElementException("Attribute '" + pAttribute + "' is not present because its element is " + "not present.");
             }
@@ -1586,25 +1942,27 @@ public class BrowserDriver {
                         pAttribute, pValue, weal.locator);
 
                 // Waiting for the WebElement's attribute to contain a specific value.
-                WebDriverWait wait = new WebDriverWait(getCurrentDriver(), timeLeft);
-                wait.until(new ExpectedCondition<Boolean>() {
-                    private WebElement webElement;
-                    private String attribute;
-                    private String value;
-
-                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
-                        this.webElement = pWebElement;
-                        this.attribute = pAttribute;
-                        this.value = pValue;
-
-                        return this;
-                    }
+                if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_VALUE_PRESENT, timeLeft, pAttribute, pValue)) {
+                    WebDriverWait wait = newWait(getCurrentDriver(), timeLeft);
+                    wait.until(new ExpectedCondition<Boolean>() {
+                        private WebElement webElement;
+                        private String attribute;
+                        private String value;
+
+                        private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
+                            this.webElement = pWebElement;
+                            this.attribute = pAttribute;
+                            this.value = pValue;
+
+                            return this;
+                        }
 
-                    @Override
-                    public Boolean apply(WebDriver pWebDriver) {
-                        return isAttributeValueEqual(webElement, attribute, value, false);
-                    }
-                }.init(weal.webElement, pAttribute, pValue));
+                        @Override
+                        public Boolean apply(WebDriver pWebDriver) {
+                            return isAttributeValueEqual(webElement, attribute, value, false);
+                        }
+                    }.init(weal.webElement, pAttribute, pValue));
+                }
             } else {
                 throw new NoSuchElementException("Attribute '" + pAttribute + "' is not present because its element is " + "not present.");
             }
@@ -1648,25 +2006,27 @@ public class BrowserDriver {
                 log.info("Waiting a maximum of {} seconds for attribute {} to not contain a value of {} in the WebElement " + "defined as {}.", pTimeout,
                         pAttribute, pValue, weal.locator);
 
-                WebDriverWait wait = new WebDriverWait(getCurrentDriver(), timeLeft);
-                wait.until(new ExpectedCondition<Boolean>() {
-                    private WebElement webElement;
-                    private String attribute;
-                    private String value;
+                if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_VALUE_NOT_PRESENT, timeLeft, pAttribute, pValue)) {
+                    WebDriverWait wait = newWait(getCurrentDriver(), timeLeft);
+                    wait.until(new ExpectedCondition<Boolean>() {
+                        private WebElement webElement;
+                        private String attribute;
+                        private String value;
 
-                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
-                        this.webElement = pWebElement;
-                        this.attribute = pAttribute;
-                        this.value = pValue;
+                        private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
+                            this.webElement = pWebElement;
+                            this.attribute = pAttribute;
+                            this.value = pValue;
 
-                        return this;
-                    }
+                            return this;
+                        }
 
-                    @Override
-                    public Boolean apply(WebDriver webDriver) {
-                        return !isAttributeValueEqual(webElement, attribute, value, false);
-                    }
-                }.init(weal.webElement, pAttribute, pValue));
+                        @Override
+                        public Boolean apply(WebDriver webDriver) {
+                            return !isAttributeValueEqual(webElement, attribute, value, false);
+                        }
+                    }.init(weal.webElement, pAttribute, pValue));
+                }
             } else {
                 throw new NoSuchElementException("Attribute '" + pAttribute + "' is not present because its element is " + "not present.");
             }
@@ -1686,6 +2046,77 @@ public class BrowserDriver {
         waitForAttributeValueNotPresent(pLocator, pAttribute, pValue, defaultTimeoutInSeconds);
     }
 
+    /**
+     * Wait with the default timeout for a condition, e.g. allOf(visible(a), textPresent(b, "Saved")), see ElementCondition
+     *
+     * @param pCondition (ElementCondition)
+     */
+    public static void waitForCondition(ElementCondition pCondition) {
+        waitForCondition(pCondition, defaultTimeoutInSeconds);
+    }
+
+    /**
+     * Wait for a condition. The conditions of allOf and anyOf are checked together, under the same timeout.
+     *
+     * @param pCondition (ElementCondition)
+     * @param pTimeout - The maximum number of seconds to wait.
+     */
+    public static void waitForCondition(ElementCondition pCondition, long pTimeout) {
+        try {
+            log.info("Waiting a maximum of {} seconds for {}.", pTimeout, pCondition);
+            waitUntil(pCondition, pTimeout);
+        } catch (Exception e) {
+            handleException(e, "waitForCondition");
+        }
+    }
+
+    /**
+     * Wait for a condition. The conditions of allOf and anyOf are checked together, under the same timeout.
+     *
+     * @param pCondition (ElementCondition)
+     * @param pTimeout - The maximum number of seconds to wait.
+     * @return (boolean) - Whether or not the condition holds.
+     */
+    public static boolean waitIsCondition(ElementCondition pCondition, long pTimeout) {
+        try {
+            waitUntil(pCondition, pTimeout);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wait in the browser for every element found by pLocator to be in the state, all checked in one script per change
+     *
+     * @return (List) the elements (empty for NOT_VISIBLE), null if they cannot be checked in the browser and the caller must poll
+     * @throws TimeoutException if the elements are not in the state in time
+     */
+    private static List<WebElement> waitInBrowserForAll(By pLocator, DomWait.ElementsState pState, long pTimeout) {
+        if (!waitInBrowser) {
+            return null;
+        }
+        return DomWait.untilAll(getCurrentDriver(), pLocator, pState, TimeUnit.SECONDS.toMillis(pTimeout));
+    }
+
+    /**
+     * Wait in the browser for the condition, or poll it with one WebDriverWait
+     *
+     * @throws TimeoutException if the condition does not hold in time
+     */
+    private static void waitUntil(ElementCondition pCondition, long pTimeout) {
+        WebDriver driver = getCurrentDriver();
+        Boolean met = waitInBrowser ? DomWait.until(driver, pCondition, TimeUnit.SECONDS.toMillis(pTimeout)) : null;
+        if (met == null) {
+            newWait(driver, pTimeout).ignoring(StaleElementReferenceException.class)
+                    .withMessage("waiting for " + pCondition)
+                    .until(pCondition::holds);
+        } else if (!met) {
+            throw new TimeoutException("Timed out after " + pTimeout + " seconds waiting for " + pCondition
+                    + ", not holding: " + DomWait.describeNotHolding(driver, pCondition));
+        }
+    }
+
     /**
      * Get a list of elements by a locator
      * 
@@ -1696,7 +2127,7 @@ public class BrowserDriver {
         log.info("Find elements " + pLocator);
         List<WebElement> elements = null;
         try {
-            elements = mDriver.findElements(pLocator);
+            elements = getCurrentDriver().findElements(pLocator);
         } catch (Exception e) {
             handleException(e, "findElements");
         }
@@ -1704,25 +2135,46 @@ public class BrowserDriver {
         return elements;
     }
 
+    /**
+     * Find an element with the first of the locators that finds one. All the locators are checked in the same poll,
+     * FIND_ELEMENT_TIMEOUT_SECONDS per locator at most, and the locator that found the element is tried first
+     * the next time at this call site (see LocatorPreferences).
+     *
+     * @param locators (By...) the locators, the first one wins when several find an element
+     * @return (WebElement)
+     * @throws NotFoundException if no locator finds an element in time
+     */
     public static WebElement findElement(By... locators)
     {
-        return Stream.of(locators).map(BrowserDriver::findElement)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .findAny()
-                .orElseThrow(()->new NotFoundException("Could not find the WebElement"));
-    }
-
-    private static Optional<WebElement> findElement(By locator)
-    {
+        String callSite = LocatorPreferences.callSite();
+        List<By> ordered = LocatorPreferences.order(callSite, locators);
+        long timeout = FIND_ELEMENT_TIMEOUT_SECONDS * Math.max(1, locators.length);
+        Object[] first;
         try
         {
-            return Optional.of(BrowserDriver.waitForAndGetElementWhenPresent(locator,5));
+            first = DomWait.untilFirst(getCurrentDriver(), ordered, TimeUnit.SECONDS.toMillis(timeout));
+            if (first == null)
+            {
+                // one poll tries every locator, in order
+                first = newWait(getCurrentDriver(), timeout).until(driver -> {
+                    for (int i = 0; i < ordered.size(); i++) {
+                        List<WebElement> found = driver.findElements(ordered.get(i));
+                        if (!found.isEmpty()) {
+                            return new Object[] {i, found.get(0)};
+                        }
+                    }
+                    return null;
+                });
+            }
         }catch(TimeoutException e)
         {
-            log.info("Could not find element at " + locator.toString());
-            return Optional.empty();
+            log.info("Could not find element at any of " + ordered);
+            throw new NotFoundException("Could not find the WebElement", e);
         }
+        By locator = ordered.get((Integer) first[0]);
+        log.info("Found element at " + locator);
+        LocatorPreferences.remember(callSite, locator);
+        return (WebElement) first[1];
     }
 
     /**
@@ -1941,7 +2393,7 @@ public class BrowserDriver {
         try {
             WebElementAndLocator weal = getWebElementAndLocator(pObject);
             WebDriver driver = getCurrentDriver();
-            WebDriverWait wait = new WebDriverWait(driver, defaultTimeoutInSeconds);
+            WebDriverWait wait = newWait(driver, defaultTimeoutInSeconds);
             wait.until(ExpectedConditions.presenceOfElementLocated(BrowserDriver.getBy(weal.locator)));
 
             log.info("Retrieving the text for the WebElement defined as '" + weal.locator + "'.");
@@ -1979,7 +2431,7 @@ public class BrowserDriver {
             log.info("Moving to the WebElement defined as '" + weal.locator + "'.");
 
             WebDriver driver = getCurrentDriver();
-            WebDriverWait wait = new WebDriverWait(driver, defaultTimeoutInSeconds);
+            WebDriverWait wait = newWait(driver, defaultTimeoutInSeconds);
             wait.until(ExpectedConditions.visibilityOfAllElementsLocatedBy(BrowserDriver.getBy(weal.locator)));
             Actions action = new Actions(driver);
             action.moveToElement(weal.webElement).build().perform();
@@ -1998,7 +2450,7 @@ public class BrowserDriver {
     public static void moveByOffset(int xoffset, int yoffset) {
         log.info("Moving focus by X Offset " + xoffset + " and Y Offset " + yoffset);
         try {
-            Actions action = new Actions(mDriver);
+            Actions action = new Actions(activeDriver());
             action.moveByOffset(xoffset, yoffset);
             action.perform();
         } catch (Exception e) {
@@ -2063,7 +2515,7 @@ public class BrowserDriver {
         String result = null;
 
         try {
-            result = mDriver.getTitle();
+            result = activeDriver().getTitle();
         } catch (Exception e) {
             handleException(e, "getTitle");
         }
@@ -2136,8 +2588,232 @@ public class BrowserDriver {
         BrowserDriver.pathToFirepath = pathToFirepath;
     }
 
+    /**
+     * Set the Scenario of the calling thread's session. In session per thread mode, this must be used
+     * instead of assigning BrowserDriver.scenario.
+     *
+     * @param scenario (Scenario)
+     */
     public static void setScenario(Scenario scenario) {
-        BrowserDriver.scenario = scenario;
+        if (sessionPerThread) {
+            threadSession.get().setScenario(scenario);
+            startFeature(scenario);
+        } else {
+            synchronized (BrowserDriver.class) {
+                BrowserDriver.scenario = scenario;
+                startFeature(scenario);
+            }
+        }
+    }
+
+    /**
+     * With the FEATURE scope, close the browser of the previous feature when a scenario of a new feature starts.
+     * The feature is the first part of the scenario id ("feature-id;scenario-id").
+     *
+     * @param pScenario (Scenario)
+     */
+    private static void startFeature(Scenario pScenario) {
+        if (pScenario == null || pScenario.getId() == null) {
+            return;
+        }
+        String featureId = pScenario.getId().split(";")[0];
+        String previousFeatureId = session().getFeatureId();
+        session().setFeatureId(featureId);
+        if (driverScope == DriverScope.FEATURE && previousFeatureId != null && !previousFeatureId.equals(featureId)) {
+            log.info("New feature " + featureId + ", closing the browser of " + previousFeatureId);
+            closeActiveDriver();
+        }
+    }
+
+    /**
+     * Used by Spring to set how long a browser is kept: SCENARIO (default), FEATURE or SUITE.
+     * Call BrowserDriver.setScenario at the start of each scenario for the FEATURE scope.
+     *
+     * @param driverScope (DriverScope)
+     */
+    public static void setDriverScope(DriverScope driverScope) {
+        BrowserDriver.driverScope = driverScope;
+    }
+
+    public static DriverScope getDriverScope() {
+        return driverScope;
+    }
+
+    /**
+     * Give each thread its own driver, scenario and grid factory so cucumber scenarios can run in parallel.
+     * Must be set before the first browser is opened.
+     *
+     * @param sessionPerThread (boolean)
+     */
+    public static void setSessionPerThread(boolean sessionPerThread) {
+        BrowserDriver.sessionPerThread = sessionPerThread;
+    }
+
+    public static boolean isSessionPerThread() {
+        return sessionPerThread;
+    }
+
+    /**
+     * Used by Spring to keep grid sessions created ahead of time. close() then gives the browser back
+     * to the pool instead of quitting it.
+     *
+     * @param gridSessionPoolSize number of idle sessions by capability set, 0 to disable the pool
+     */
+    public static void setGridSessionPoolSize(int gridSessionPoolSize) {
+        BrowserDriver.gridSessionPoolSize = gridSessionPoolSize;
+    }
+
+    /**
+     * Used by Spring to set the timeout to open a connection to the grid, see GridFactory.setCommandHttpClient
+     *
+     * @param gridConnectTimeoutMillis timeout in ms, 0 for the default
+     */
+    public static void setGridConnectTimeoutMillis(int gridConnectTimeoutMillis) {
+        BrowserDriver.gridConnectTimeoutMillis = gridConnectTimeoutMillis;
+    }
+
+    /**
+     * Used by Spring to set the timeout to wait for the answer of a grid command, see GridFactory.setCommandHttpClient
+     *
+     * @param gridReadTimeoutMillis timeout in ms, 0 for the default
+     */
+    public static void setGridReadTimeoutMillis(int gridReadTimeoutMillis) {
+        BrowserDriver.gridReadTimeoutMillis = gridReadTimeoutMillis;
+    }
+
+    /**
+     * Used by Spring to set the keep-alive connections kept open to each hub, see GridFactory.setCommandHttpClient
+     *
+     * @param gridConnectionsPerHub number of connections, 0 for the default
+     */
+    public static void setGridConnectionsPerHub(int gridConnectionsPerHub) {
+        BrowserDriver.gridConnectionsPerHub = gridConnectionsPerHub;
+    }
+
+    /**
+     * Used by Spring to limit the new session requests in flight in the JVM, see GridFactory.setAdmissionLimits
+     *
+     * @param gridMaxSessionRequests number of requests, 0 for no limit
+     */
+    public static void setGridMaxSessionRequests(int gridMaxSessionRequests) {
+        BrowserDriver.gridMaxSessionRequests = gridMaxSessionRequests;
+        GridFactory.setAdmissionLimits(gridMaxSessionRequests, gridMaxSessionRequestsPerHub);
+    }
+
+    /**
+     * Used by Spring to limit the new session requests in flight by hub, see GridFactory.setAdmissionLimits
+     *
+     * @param gridMaxSessionRequestsPerHub number of requests, 0 for no limit
+     */
+    public static void setGridMaxSessionRequestsPerHub(int gridMaxSessionRequestsPerHub) {
+        BrowserDriver.gridMaxSessionRequestsPerHub = gridMaxSessionRequestsPerHub;
+        GridFactory.setAdmissionLimits(gridMaxSessionRequests, gridMaxSessionRequestsPerHub);
+    }
+
+    /**
+     * Used by Spring to run chrome and firefox without a display (headless), local and on the grid.
+     * The window gets the headless window size instead of being maximized.
+     *
+     * @param headless true to run the browsers headless
+     */
+    public static void setHeadless(boolean headless) {
+        BrowserDriver.headless = headless;
+    }
+
+    /**
+     * Used by Spring to set the window width of the headless browsers (1920 by default)
+     *
+     * @param headlessWindowWidth width in pixels
+     */
+    public static void setHeadlessWindowWidth(int headlessWindowWidth) {
+        BrowserDriver.headlessWindowWidth = headlessWindowWidth;
+    }
+
+    /**
+     * Used by Spring to set the window height of the headless browsers (1080 by default)
+     *
+     * @param headlessWindowHeight height in pixels
+     */
+    public static void setHeadlessWindowHeight(int headlessWindowHeight) {
+        BrowserDriver.headlessWindowHeight = headlessWindowHeight;
+    }
+
+    private static org.openqa.selenium.Dimension headlessWindowSize() {
+        return new org.openqa.selenium.Dimension(headlessWindowWidth, headlessWindowHeight);
+    }
+
+    /**
+     * Used by Spring to make waitForPageLoad (and getCurrentURL) also wait for the fetch/XMLHttpRequest in flight
+     *
+     * @param waitForNetworkIdle true to wait for the network to be idle
+     */
+    public static void setWaitForNetworkIdle(boolean waitForNetworkIdle) {
+        BrowserDriver.waitForNetworkIdle = waitForNetworkIdle;
+    }
+
+    /**
+     * Set the polling of every BrowserDriver wait
+     *
+     * @param waitPolicy (WaitPolicy) e.g. WaitPolicy.DEFAULT or WaitPolicy.FIXED_500_MS
+     */
+    public static void setWaitPolicy(WaitPolicy waitPolicy) {
+        BrowserDriver.waitPolicy = waitPolicy;
+    }
+
+    /**
+     * Get the polling of every BrowserDriver wait
+     *
+     * @return (WaitPolicy)
+     */
+    public static WaitPolicy getWaitPolicy() {
+        return BrowserDriver.waitPolicy;
+    }
+
+    /**
+     * Used by Spring to set the delay before the second poll of the waits (50 ms by default)
+     *
+     * @param waitInitialPollMillis delay in ms
+     */
+    public static void setWaitInitialPollMillis(long waitInitialPollMillis) {
+        BrowserDriver.waitPolicy = waitPolicy.withInitialPollMillis(waitInitialPollMillis);
+    }
+
+    /**
+     * Used by Spring to set the factor applied to the delay between polls after each poll (2 by default, 1 for a fixed delay)
+     *
+     * @param waitBackoffFactor factor, 1 or more
+     */
+    public static void setWaitBackoffFactor(double waitBackoffFactor) {
+        BrowserDriver.waitPolicy = waitPolicy.withBackoffFactor(waitBackoffFactor);
+    }
+
+    /**
+     * Used by Spring to set the longest delay between two polls of the waits (1000 ms by default)
+     *
+     * @param waitMaxPollMillis delay in ms
+     */
+    public static void setWaitMaxPollMillis(long waitMaxPollMillis) {
+        BrowserDriver.waitPolicy = waitPolicy.withMaxPollMillis(waitMaxPollMillis);
+    }
+
+    /**
+     * Used by Spring to check the element waits in the browser (true by default) or by polling with WebDriverWait
+     *
+     * @param waitInBrowser false to always poll
+     */
+    public static void setWaitInBrowser(boolean waitInBrowser) {
+        BrowserDriver.waitInBrowser = waitInBrowser;
+    }
+
+    /**
+     * Used by Spring to reuse the element found by a locator in the helpers, until the next loadPage, navigateTo,
+     * refresh or switchToFrame. A stale element is found again from its locator and the action is retried once.
+     * Off by default.
+     *
+     * @param elementCache true to cache the elements
+     */
+    public static void setElementCache(boolean elementCache) {
+        BrowserDriver.elementCache = elementCache;
     }
 
     /**
@@ -2150,6 +2826,41 @@ public class BrowserDriver {
         BrowserDriver.defaultTimeoutInSeconds = defaultTimeoutInSeconds;
     }
 
+    /**
+     * Used by Spring to write the metrics (browser start, grid sessions, WebDriver commands) to a text file every 30 seconds.
+     * They are also available in JMX, see SeleniumMetrics.
+     *
+     * @param metricsSnapshotFile path of the file, null or empty to stop writing it
+     */
+    public static void setMetricsSnapshotFile(String metricsSnapshotFile) {
+        if (metricsSnapshotFile == null || metricsSnapshotFile.isEmpty()) {
+            SeleniumMetrics.get().stopSnapshots();
+        } else {
+            SeleniumMetrics.get().startSnapshots(new File(metricsSnapshotFile), 30);
+        }
+    }
+
+    /**
+     * Used by Spring to keep the encoded Firefox profiles on disk between runs, see FirefoxProfileCache
+     *
+     * @param firefoxProfileCacheDir path of the directory, null or empty to keep them in memory only
+     */
+    public static void setFirefoxProfileCacheDir(String firefoxProfileCacheDir) {
+        FirefoxProfileCache.setCacheDir(firefoxProfileCacheDir == null || firefoxProfileCacheDir.isEmpty() ?
+                null : new File(firefoxProfileCacheDir));
+    }
+
+    /**
+     * Used by Spring to keep the preferred locator of each findElement(By...) call site in another file,
+     * ./target/locator-preferences.properties by default
+     *
+     * @param locatorPreferencesFile path of the file, null or empty to keep them in memory only
+     */
+    public static void setLocatorPreferencesFile(String locatorPreferencesFile) {
+        LocatorPreferences.setFile(locatorPreferencesFile == null || locatorPreferencesFile.isEmpty() ?
+                null : new File(locatorPreferencesFile));
+    }
+
     /**
      * Get the timeout for all wait action
      * 
@@ -2249,7 +2960,7 @@ public class BrowserDriver {
         Object result = null;
 
         try {
-            JavascriptExecutor js = (JavascriptExecutor) mDriver;
+            JavascriptExecutor js = (JavascriptExecutor) activeDriver();
             result = js.executeScript(pJavaScriptCode, pWebElement);
         } catch (Exception e) {
             handleException(e, "javaScriptExecute");
@@ -2289,7 +3000,7 @@ public class BrowserDriver {
         List<String> windowHandles = new ArrayList<String>();
 
         try {
-            windowHandles = new ArrayList<String>(mDriver.getWindowHandles());
+            windowHandles = new ArrayList<String>(activeDriver().getWindowHandles());
         } catch (Exception e) {
             handleException(e, "getWindowHandles");
         }
@@ -2318,7 +3029,7 @@ public class BrowserDriver {
     public static boolean validateDropDownSelectedOptions(String pDropDown, List<String> pExpectedSelectedOptions) {
         boolean result = false;
 
-        WebElement dropDown = mDriver.findElement(BrowserDriver.getBy(pDropDown));
+        WebElement dropDown = getCurrentDriver().findElement(BrowserDriver.getBy(pDropDown));
         if ((dropDown != null) && dropDown.getAttribute("type").contains("select")) {
             int expectedSize = pExpectedSelectedOptions.size();
 
@@ -2384,7 +3095,7 @@ public class BrowserDriver {
      */
     public static void setBrowserSize(Dimension pDimension) {
         try {
-            mDriver.manage().window().setSize(new org.openqa.selenium.Dimension(pDimension.width, pDimension.height));
+            activeDriver().manage().window().setSize(new org.openqa.selenium.Dimension(pDimension.width, pDimension.height));
             String text = "Set browser size to: " + pDimension.width + "x" + pDimension.height;
             log.info(text);
             scenarioPrintText(text);
@@ -2409,7 +3120,7 @@ public class BrowserDriver {
         Dimension result = null;
 
         try {
-            org.openqa.selenium.Dimension windowSize = mDriver.manage().window().getSize();
+            org.openqa.selenium.Dimension windowSize = activeDriver().manage().window().getSize();
             result = new Dimension(windowSize.getWidth(), windowSize.getHeight());
         } catch (Exception e) {
             handleException(e, "getScreenSize");
@@ -2428,8 +3139,9 @@ public class BrowserDriver {
         Dimension result = null;
         JavascriptExecutor js;
         try {
-            if (mDriver instanceof JavascriptExecutor) {
-                js = (JavascriptExecutor) mDriver;
+            WebDriver driver = activeDriver();
+            if (driver instanceof JavascriptExecutor) {
+                js = (JavascriptExecutor) driver;
 
                 int width = Integer.valueOf(js.executeScript("return Math.max(document.documentElement.clientWidth, window.innerWidth || 0)").toString());
                 int height = Integer.valueOf(js.executeScript("return Math.max(document.documentElement.clientHeight, window.innerHeight || 0)").toString());
@@ -2465,23 +3177,25 @@ public class BrowserDriver {
         try {
             WebElementAndLocator weal = getWebElementAndLocator(pObject);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(new ExpectedCondition<Boolean>() {
-                private WebElement webElement;
-                private String attribute;
+            if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_NOT_PRESENT, pTimeout, pAttribute)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(new ExpectedCondition<Boolean>() {
+                    private WebElement webElement;
+                    private String attribute;
 
-                private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
-                    this.webElement = pWebElement;
-                    this.attribute = pAttribute;
+                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
+                        this.webElement = pWebElement;
+                        this.attribute = pAttribute;
 
-                    return this;
-                }
+                        return this;
+                    }
 
-                @Override
-                public Boolean apply(WebDriver webDriver) {
-                    return !isAttributePresent(webElement, attribute, false);
-                }
-            }.init(weal.webElement, pAttribute));
+                    @Override
+                    public Boolean apply(WebDriver webDriver) {
+                        return !isAttributePresent(webElement, attribute, false);
+                    }
+                }.init(weal.webElement, pAttribute));
+            }
 
             return true;
         } catch (NoSuchElementException nsee) {
@@ -2511,23 +3225,25 @@ public class BrowserDriver {
         try {
             WebElementAndLocator weal = getWebElementAndLocator(pObject);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(new ExpectedCondition<Boolean>() {
-                private WebElement webElement;
-                private String attribute;
+            if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_PRESENT, pTimeout, pAttribute)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(new ExpectedCondition<Boolean>() {
+                    private WebElement webElement;
+                    private String attribute;
 
-                private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
-                    this.webElement = pWebElement;
-                    this.attribute = pAttribute;
+                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute) {
+                        this.webElement = pWebElement;
+                        this.attribute = pAttribute;
 
-                    return this;
-                }
+                        return this;
+                    }
 
-                @Override
-                public Boolean apply(WebDriver webDriver) {
-                    return isAttributePresent(webElement, attribute, false);
-                }
-            }.init(weal.webElement, pAttribute));
+                    @Override
+                    public Boolean apply(WebDriver webDriver) {
+                        return isAttributePresent(webElement, attribute, false);
+                    }
+                }.init(weal.webElement, pAttribute));
+            }
 
             return true;
         } catch (Exception e) {
@@ -2555,25 +3271,27 @@ public class BrowserDriver {
         try {
             WebElementAndLocator weal = getWebElementAndLocator(pObject);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(new ExpectedCondition<Boolean>() {
-                private WebElement webElement;
-                private String attribute;
-                private String value;
+            if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_VALUE_NOT_PRESENT, pTimeout, pAttribute, pValue)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(new ExpectedCondition<Boolean>() {
+                    private WebElement webElement;
+                    private String attribute;
+                    private String value;
 
-                private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
-                    this.webElement = pWebElement;
-                    this.attribute = pAttribute;
-                    this.value = pValue;
+                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
+                        this.webElement = pWebElement;
+                        this.attribute = pAttribute;
+                        this.value = pValue;
 
-                    return this;
-                }
+                        return this;
+                    }
 
-                @Override
-                public Boolean apply(WebDriver webDriver) {
-                    return !isAttributeValueEqual(webElement, attribute, value, false);
-                }
-            }.init(weal.webElement, pAttribute, pValue));
+                    @Override
+                    public Boolean apply(WebDriver webDriver) {
+                        return !isAttributeValueEqual(webElement, attribute, value, false);
+                    }
+                }.init(weal.webElement, pAttribute, pValue));
+            }
 
             return true;
         } catch (NoSuchElementException nsee) {
@@ -2604,25 +3322,27 @@ public class BrowserDriver {
         try {
             WebElementAndLocator weal = getWebElementAndLocator(pObject);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(new ExpectedCondition<Boolean>() {
-                private WebElement webElement;
-                private String attribute;
-                private String value;
+            if (!waitInBrowser(pObject, DomWait.Condition.ATTRIBUTE_VALUE_PRESENT, pTimeout, pAttribute, pValue)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(new ExpectedCondition<Boolean>() {
+                    private WebElement webElement;
+                    private String attribute;
+                    private String value;
 
-                private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
-                    this.webElement = pWebElement;
-                    this.attribute = pAttribute;
-                    this.value = pValue;
+                    private ExpectedCondition<Boolean> init(WebElement pWebElement, String pAttribute, String pValue) {
+                        this.webElement = pWebElement;
+                        this.attribute = pAttribute;
+                        this.value = pValue;
 
-                    return this;
-                }
+                        return this;
+                    }
 
-                @Override
-                public Boolean apply(WebDriver pWebDriver) {
-                    return isAttributeValueEqual(webElement, attribute, value, false);
-                }
-            }.init(weal.webElement, pAttribute, pValue));
+                    @Override
+                    public Boolean apply(WebDriver pWebDriver) {
+                        return isAttributeValueEqual(webElement, attribute, value, false);
+                    }
+                }.init(weal.webElement, pAttribute, pValue));
+            }
 
             return true;
         } catch (Exception e) {
@@ -2649,7 +3369,7 @@ public class BrowserDriver {
         try {
             WebElementAndLocator weal = getWebElementAndLocator(pObject);
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
+            WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
             wait.until(ExpectedConditions.elementToBeClickable(weal.webElement));
 
             return true;
@@ -2685,20 +3405,22 @@ public class BrowserDriver {
                 weal.locator = getWebElementLocator(weal.webElement);
             }
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(new ExpectedCondition<Boolean>() {
-                private By locator;
+            if (!waitInBrowser(pObject, DomWait.Condition.NOT_PRESENT, pTimeout)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(new ExpectedCondition<Boolean>() {
+                    private By locator;
 
-                private ExpectedCondition<Boolean> init(By pLocator) {
-                    this.locator = pLocator;
-                    return this;
-                }
+                    private ExpectedCondition<Boolean> init(By pLocator) {
+                        this.locator = pLocator;
+                        return this;
+                    }
 
-                @Override
-                public Boolean apply(WebDriver pWebDriver) {
-                    return !isElementPresent(locator);
-                }
-            }.init(getBy(weal.locator)));
+                    @Override
+                    public Boolean apply(WebDriver pWebDriver) {
+                        return !isElementPresent(locator);
+                    }
+                }.init(getBy(weal.locator)));
+            }
 
             return true;
         } catch (NoSuchElementException nsee) {
@@ -2751,8 +3473,10 @@ public class BrowserDriver {
                 }
             }
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(ExpectedConditions.presenceOfElementLocated(getBy(weal.locator)));
+            if (!waitInBrowser(pObject, DomWait.Condition.PRESENT, pTimeout)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(ExpectedConditions.presenceOfElementLocated(getBy(weal.locator)));
+            }
 
             return true;
         } catch (Exception e) {
@@ -2782,20 +3506,22 @@ public class BrowserDriver {
                 return true;
             }
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(new ExpectedCondition<Boolean>() {
-                private WebElement webElement;
+            if (!waitInBrowser(pObject, DomWait.Condition.NOT_VISIBLE, pTimeout)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(new ExpectedCondition<Boolean>() {
+                    private WebElement webElement;
 
-                private ExpectedCondition<Boolean> init(WebElement pWebElement) {
-                    this.webElement = pWebElement;
-                    return this;
-                }
+                    private ExpectedCondition<Boolean> init(WebElement pWebElement) {
+                        this.webElement = pWebElement;
+                        return this;
+                    }
 
-                @Override
-                public Boolean apply(WebDriver pWebDriver) {
-                    return !isElementVisible(webElement);
-                }
-            }.init(weal.webElement));
+                    @Override
+                    public Boolean apply(WebDriver pWebDriver) {
+                        return !isElementVisible(webElement);
+                    }
+                }.init(weal.webElement));
+            }
 
             return true;
         } catch (Exception e) {
@@ -2825,8 +3551,10 @@ public class BrowserDriver {
                 weal.locator = getWebElementLocator(weal.webElement);
             }
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(ExpectedConditions.visibilityOfElementLocated(getBy(weal.locator)));
+            if (!waitInBrowser(pObject, DomWait.Condition.VISIBLE, pTimeout)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(ExpectedConditions.visibilityOfElementLocated(getBy(weal.locator)));
+            }
 
             return true;
         } catch (Exception e) {
@@ -2866,8 +3594,10 @@ public class BrowserDriver {
                 weal.locator = getWebElementLocator(weal.webElement);
             }
 
-            WebDriverWait wait = new WebDriverWait(getCurrentDriver(), pTimeout);
-            wait.until(ExpectedConditions.textToBePresentInElementLocated(getBy(weal.locator), pText));
+            if (!waitInBrowser(pObject, DomWait.Condition.TEXT_PRESENT, pTimeout, pText)) {
+                WebDriverWait wait = newWait(getCurrentDriver(), pTimeout);
+                wait.until(ExpectedConditions.textToBePresentInElementLocated(getBy(weal.locator), pText));
+            }
 
             return true;
         } catch (Exception e) {
@@ -2915,8 +3645,16 @@ public class BrowserDriver {
         return locator;
     } // getWebElementLocator()
 
+    /**
+     * Forget the elements found by locator in the session of the calling thread, the page or window changes
+     */
+    private static void clearElementCache() {
+        session().getElementCache().clear();
+    }
+
     /**
      * This method receives a WebElement or a By "locator" (for a WebElement) and returns a WebElementAndLocator object.
+     * With setElementCache(true) the element of a By is reused until the page or window changes.
      * 
      * @param pObject - a WebElement or a By "locator".
      * 
@@ -2933,7 +3671,8 @@ public class BrowserDriver {
                 weal.locator = getWebElementLocator(weal.webElement);
             }
         } else if (pObject instanceof By) {
-            weal.webElement = getCurrentDriver().findElement((By) pObject);
+            weal.webElement = elementCache ? session().getElementCache().find(getCurrentDriver(), (By) pObject)
+                    : getCurrentDriver().findElement((By) pObject);
 
             String strBy = ((By) pObject).toString();
             int posPeriod = strBy.indexOf(".");
@@ -2999,8 +3738,8 @@ public class BrowserDriver {
                                                                long... pTimeout)
     {
         WebDriverWait wait = pTimeout.length>0 ?
-                new WebDriverWait(getCurrentDriver(), pTimeout[0]) :
-                new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds);
+                newWait(getCurrentDriver(), pTimeout[0]) :
+                newWait(getCurrentDriver(), defaultTimeoutInSeconds);
 
         return wait.until(ExpectedConditions.elementToBeClickable(pLocator));
 
@@ -3021,8 +3760,8 @@ public class BrowserDriver {
                                                              long... pTimeout)
     {
         WebDriverWait wait = pTimeout.length>0 ?
-                new WebDriverWait(getCurrentDriver(), pTimeout[0]) :
-                new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds);
+                newWait(getCurrentDriver(), pTimeout[0]) :
+                newWait(getCurrentDriver(), defaultTimeoutInSeconds);
 
         return wait.until(ExpectedConditions.presenceOfElementLocated(pLocator));
 
@@ -3043,8 +3782,8 @@ public class BrowserDriver {
                                                             long... pTimeout)
     {
         WebDriverWait wait = pTimeout.length>0 ?
-                new WebDriverWait(getCurrentDriver(), pTimeout[0]) :
-                new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds);
+                newWait(getCurrentDriver(), pTimeout[0]) :
+                newWait(getCurrentDriver(), defaultTimeoutInSeconds);
 
         return wait.until(ExpectedConditions.visibilityOfElementLocated(pLocator));
     }
@@ -3063,9 +3802,13 @@ public class BrowserDriver {
     public static List<WebElement> waitForAndGetElementsWhenPresent(By pLocator,
                                                              long... pTimeout)
     {
-        WebDriverWait wait = pTimeout.length>0 ?
-                new WebDriverWait(getCurrentDriver(), pTimeout[0]) :
-                new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds);
+        long timeout = pTimeout.length>0 ? pTimeout[0] : defaultTimeoutInSeconds;
+        List<WebElement> elements = waitInBrowserForAll(pLocator, DomWait.ElementsState.PRESENT, timeout);
+        if (elements != null) {
+            return elements;
+        }
+
+        WebDriverWait wait = newWait(getCurrentDriver(), timeout);
 
         return wait.until(ExpectedConditions
                             .presenceOfAllElementsLocatedBy((pLocator)));
@@ -3086,11 +3829,15 @@ public class BrowserDriver {
     public static List<WebElement> waitForAndGetElementsWhenVisible(By pLocator,
                                                                     long... pTimeout)
     {
-        WebDriverWait wait = pTimeout.length>0 ?
-                new WebDriverWait(getCurrentDriver(), pTimeout[0]) :
-                new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds);
+        long timeout = pTimeout.length>0 ? pTimeout[0] : defaultTimeoutInSeconds;
+        List<WebElement> elements = waitInBrowserForAll(pLocator, DomWait.ElementsState.VISIBLE, timeout);
+        if (elements != null) {
+            return elements;
+        }
+
+        WebDriverWait wait = newWait(getCurrentDriver(), timeout);
 
-        List<WebElement> elements = waitForAndGetElementsWhenPresent(pLocator);
+        elements = waitForAndGetElementsWhenPresent(pLocator, timeout);
 
         return wait.until(ExpectedConditions
                 .visibilityOfAllElements((elements)));
@@ -3110,11 +3857,15 @@ public class BrowserDriver {
     public static List<WebElement> waitForAndGetElementsWhenClickable
                                                 (By pLocator, long... pTimeout)
     {
-        WebDriverWait wait = pTimeout.length>0 ?
-                new WebDriverWait(getCurrentDriver(), pTimeout[0]) :
-                new WebDriverWait(getCurrentDriver(), defaultTimeoutInSeconds);
+        long timeout = pTimeout.length>0 ? pTimeout[0] : defaultTimeoutInSeconds;
+        List<WebElement> elements = waitInBrowserForAll(pLocator, DomWait.ElementsState.CLICKABLE, timeout);
+        if (elements != null) {
+            return elements;
+        }
+
+        WebDriverWait wait = newWait(getCurrentDriver(), timeout);
 
-        List<WebElement> elements = waitForAndGetElementsWhenVisible(pLocator);
+        elements = waitForAndGetElementsWhenVisible(pLocator, timeout);
 
         return elements.stream()
                 .map(elem->wait
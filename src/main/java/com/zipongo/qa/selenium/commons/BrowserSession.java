@@ -0,0 +1,92 @@
+package com.zipongo.qa.selenium.commons;
+
+import cucumber.api.Scenario;
+import org.openqa.selenium.WebDriver;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The browser state owned by one test worker: the WebDriver, the cucumber
+ * Scenario and the GridFactory used to create the driver (shared by the sessions with the same hubs).
+ * BrowserDriver keeps one instance per thread when running in session per thread mode.
+ */
+class BrowserSession {
+
+    private WebDriver driver;
+    private Scenario scenario;
+    private GridFactory gridFactory;
+    private CompletableFuture<WebDriver> pendingDriver; // requested by startDriverAsync, not joined yet
+    private String featureId; // feature of the current scenario, used by the FEATURE scope
+    private int shotNumber = 1; // Use by screenShot
+    private final ElementCache elementCache = new ElementCache(); // used when BrowserDriver.setElementCache(true)
+
+    public WebDriver getDriver() {
+        return driver;
+    }
+
+    public void setDriver(WebDriver pDriver) {
+        this.driver = pDriver;
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public void setScenario(Scenario pScenario) {
+        this.scenario = pScenario;
+    }
+
+    public GridFactory getGridFactory() {
+        return gridFactory;
+    }
+
+    public void setGridFactory(GridFactory pGridFactory) {
+        this.gridFactory = pGridFactory;
+    }
+
+    public CompletableFuture<WebDriver> getPendingDriver() {
+        return pendingDriver;
+    }
+
+    public void setPendingDriver(CompletableFuture<WebDriver> pPendingDriver) {
+        this.pendingDriver = pPendingDriver;
+    }
+
+    public String getFeatureId() {
+        return featureId;
+    }
+
+    public void setFeatureId(String pFeatureId) {
+        this.featureId = pFeatureId;
+    }
+
+    public ElementCache getElementCache() {
+        return elementCache;
+    }
+
+    /**
+     * Return the current screenshot number and increment it
+     *
+     * @return (int) the screenshot number to use
+     */
+    public int nextShotNumber() {
+        return shotNumber++;
+    }
+
+    /**
+     * Cancel the pending driver request and quit the driver of this session if there is one
+     */
+    public void quit() {
+        if (pendingDriver != null) {
+            pendingDriver.cancel(false);
+            pendingDriver = null;
+        }
+        if (driver != null) {
+            try {
+                driver.quit();
+            } finally {
+                driver = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.zipongo.qa.selenium.commons.util.NamedDaemonThreadFactory;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Immutable capability templates by browser: the browser capabilities with the common capabilities
+ * of every grid session (takeScreenshot, jenkinsBuildTag and hostName).
+ * The host name is resolved once per JVM in background, so a slow reverse DNS never delays a session:
+ * the sessions created before it is resolved just do not have it.
+ * The templates are shared by every thread and GridFactory, each request gets its own copy.
+ */
+class CapabilityTemplates {
+
+    private static final Logger log = LoggerFactory.getLogger(CapabilityTemplates.class);
+    private static final CompletableFuture<String> hostName = resolveHostName();
+    private static final Map<String, Map<String, Object>> templates = new ConcurrentHashMap<>();
+
+    private CapabilityTemplates() {
+    }
+
+    /**
+     * Return new capabilities for the browser, copied from its template
+     *
+     * @param pBrowser (String) key of the template, e.g. BrowserType.CHROME
+     * @param pBrowserCapabilities the capabilities of the browser, e.g. DesiredCapabilities::chrome
+     * @return (DesiredCapabilities) a copy the caller can change
+     */
+    static DesiredCapabilities forBrowser(String pBrowser, Supplier<DesiredCapabilities> pBrowserCapabilities) {
+        Map<String, Object> template = templates.get(pBrowser);
+        if (template == null) {
+            template = buildTemplate(pBrowserCapabilities.get());
+            // keep the template once it has its final host name
+            if (hostName.isDone()) {
+                templates.putIfAbsent(pBrowser, template);
+            }
+        }
+        return new DesiredCapabilities(template);
+    }
+
+    private static Map<String, Object> buildTemplate(DesiredCapabilities pBrowserCapabilities) {
+        Map<String, Object> template = new HashMap<>(pBrowserCapabilities.asMap());
+        template.put("takeScreenshot", true);
+        // get the Jenkins build tag
+        String jenkinsBuildTag = System.getenv("BUILD_TAG");
+        if (jenkinsBuildTag != null && !jenkinsBuildTag.isEmpty()) {
+            template.put("jenkinsBuildTag", jenkinsBuildTag);
+        }
+        String resolvedHostName = hostName.getNow(null);
+        if (resolvedHostName != null) {
+            template.put("hostName", resolvedHostName);
+        }
+        return Collections.unmodifiableMap(template);
+    }
+
+    private static CompletableFuture<String> resolveHostName() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                log.info("Unable to get the Hostname");
+                return null;
+            }
+        }, runnable -> new NamedDaemonThreadFactory("host-name").newThread(runnable).start());
+    }
+}
@@ -0,0 +1,107 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.openqa.selenium.remote.internal.ApacheHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Http client factory of the RemoteWebDriver command executors created by a GridFactory.
+ * Every session shares one pool of keep-alive connections, limited by hub, instead of
+ * opening new connections for each session.
+ */
+class CommandHttpClientFactory implements HttpClient.Factory, Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(CommandHttpClientFactory.class);
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * @param pHubs hubs the sessions are created on, each gets pMaxConnectionsPerHub connections
+     * @param pConnectTimeoutMillis timeout to open a connection
+     * @param pReadTimeoutMillis timeout to wait for the answer of a command
+     * @param pMaxConnectionsPerHub connections kept open to each hub
+     */
+    CommandHttpClientFactory(List<URL> pHubs, int pConnectTimeoutMillis, int pReadTimeoutMillis, int pMaxConnectionsPerHub) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(pMaxConnectionsPerHub);
+        connectionManager.setMaxTotal(Math.max(1, pHubs.size()) * pMaxConnectionsPerHub);
+        pHubs.forEach(hub -> connectionManager.setMaxPerRoute(
+                new HttpRoute(new HttpHost(hub.getHost(), hub.getPort(), hub.getProtocol())), pMaxConnectionsPerHub));
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setTcpNoDelay(true)
+                .setSoKeepAlive(true)
+                .setSoTimeout(pReadTimeoutMillis)
+                .build());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(pConnectTimeoutMillis)
+                .setConnectionRequestTimeout(pConnectTimeoutMillis)
+                .setSocketTimeout(pReadTimeoutMillis)
+                .setStaleConnectionCheckEnabled(true)
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .build();
+        logger.info("Command http client: connect timeout " + pConnectTimeoutMillis + " ms, read timeout "
+                + pReadTimeoutMillis + " ms, " + pMaxConnectionsPerHub + " connections per hub.");
+    }
+
+    /**
+     * Return a client on the shared connection pool. Closing it (done by RemoteWebDriver.quit) does not
+     * close the connections of the other sessions, they are closed with the factory.
+     *
+     * @param url (URL) the hub
+     * @return (HttpClient)
+     */
+    @Override
+    public HttpClient createClient(URL url) {
+        ApacheHttpClient client = new ApacheHttpClient(httpClient, url);
+        return new HttpClient() {
+            @Override
+            public HttpResponse execute(HttpRequest request, boolean followRedirects) throws IOException {
+                return client.execute(request, followRedirects);
+            }
+
+            @Override
+            public void close() {
+                // the connections are shared by the sessions of the factory
+            }
+        };
+    }
+
+    /**
+     * Describe the usage of the connection pool
+     *
+     * @return (String) e.g. "[leased: 2; pending: 0; available: 3; max: 20]"
+     */
+    String getPoolStats() {
+        return connectionManager.getTotalStats().toString();
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.error("Command http client close error", e);
+        }
+    }
+}
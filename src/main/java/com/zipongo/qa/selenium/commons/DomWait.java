@@ -0,0 +1,425 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.zipongo.qa.selenium.commons.metrics.SeleniumMetrics;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wait for an element condition inside the browser: one asynchronous script checks the condition each time the
+ * document changes (MutationObserver, input and change events, and a 250 ms check for the changes without mutation
+ * like css transitions) and calls back as soon as it holds. A wait costs one command instead of one per poll.
+ * The element is found in the page like WebDriver finds it, from the locator of the By (see BrowserDriver.getByLocator),
+ * or given as a WebElement.
+ * When the condition cannot be checked in the browser (locator not supported, stale element, script errors),
+ * until returns null and the caller polls as before.
+ */
+class DomWait {
+
+    /**
+     * The conditions checked in the browser. The NOT conditions also hold when the element is missing.
+     * The attribute conditions read the property of the element first, like WebElement.getAttribute,
+     * and the value conditions check that the attribute contains the value.
+     */
+    enum Condition {
+        PRESENT, NOT_PRESENT, VISIBLE, NOT_VISIBLE, TEXT_PRESENT,
+        ATTRIBUTE_PRESENT, ATTRIBUTE_NOT_PRESENT, ATTRIBUTE_VALUE_PRESENT, ATTRIBUTE_VALUE_NOT_PRESENT
+    }
+
+    /**
+     * The states waited for on every element found by a locator. PRESENT, VISIBLE and CLICKABLE (visible and enabled)
+     * need at least one element, NOT_VISIBLE holds when there is none.
+     */
+    enum ElementsState {
+        PRESENT, VISIBLE, NOT_VISIBLE, CLICKABLE
+    }
+
+    private static final Set<String> SUPPORTED_LOCATORS = new HashSet<>(Arrays.asList(
+            "id", "name", "className", "tagName", "cssSelector", "xpath", "linkText", "partialLinkText"));
+    private static final long MAX_SCRIPT_WAIT_MILLIS = 10000; // under PageReadiness.SCRIPT_TIMEOUT_SECONDS
+    private static final long RETRY_DELAY_MILLIS = 100;
+    private static final int MAX_FAILURES = 3;
+
+    private static final Logger log = LoggerFactory.getLogger(DomWait.class);
+
+    // visible(el) like WebElement.isDisplayed: laid out, not hidden and not transparent; also used by PageReadiness
+    static final String VISIBLE_FUNCTION = ""
+            + "function visible(el) {"
+            + "  if (!(el.offsetWidth || el.offsetHeight || el.getClientRects().length)) { return false; }"
+            + "  if (window.getComputedStyle(el).visibility == 'hidden') { return false; }"
+            + "  for (var e = el; e && e.nodeType == 1; e = e.parentNode) {"
+            + "    if (window.getComputedStyle(e).opacity == '0') { return false; }"
+            + "  }"
+            + "  return true;"
+            + "}";
+
+    // functions shared by the wait scripts: find(type, value, element) and holds(element, condition, arg1, arg2)
+    static final String DOM_FUNCTIONS = ""
+            + "function text(el) { return el.innerText !== undefined ? el.innerText : el.textContent; }"
+            + "function links(type, value) {"
+            + "  var all = document.getElementsByTagName('a'), result = [];"
+            + "  for (var i = 0; i < all.length; i++) {"
+            + "    var t = text(all[i]).replace(/^\\s+|\\s+$/g, '');"
+            + "    if (type == 'linkText' ? t == value : t.indexOf(value) >= 0) { result.push(all[i]); }"
+            + "  }"
+            + "  return result;"
+            + "}"
+            + "function findAll(type, value) {"
+            + "  var list, result = [], i;"
+            + "  switch (type) {"
+            + "    case 'id': list = document.querySelectorAll('[id=\"' + value.replace(/([\"\\\\])/g, '\\\\$1') + '\"]'); break;"
+            + "    case 'name': list = document.getElementsByName(value); break;"
+            + "    case 'className': list = document.getElementsByClassName(value); break;"
+            + "    case 'tagName': list = document.getElementsByTagName(value); break;"
+            + "    case 'cssSelector': list = document.querySelectorAll(value); break;"
+            + "    case 'xpath':"
+            + "      var snapshot = document.evaluate(value, document, null, 7, null);"
+            + "      for (i = 0; i < snapshot.snapshotLength; i++) { result.push(snapshot.snapshotItem(i)); }"
+            + "      return result;"
+            + "    default: return links(type, value);"
+            + "  }"
+            + "  for (i = 0; i < list.length; i++) { result.push(list[i]); }"
+            + "  return result;"
+            + "}"
+            + "function find(type, value, element) {"
+            + "  if (element) { return document.documentElement.contains(element) ? element : null; }"
+            + "  switch (type) {"
+            + "    case 'id': return document.getElementById(value);"
+            + "    case 'name': return document.getElementsByName(value)[0] || null;"
+            + "    case 'className': return document.getElementsByClassName(value)[0] || null;"
+            + "    case 'tagName': return document.getElementsByTagName(value)[0] || null;"
+            + "    case 'cssSelector': return document.querySelector(value);"
+            + "    case 'xpath': return document.evaluate(value, document, null, 9, null).singleNodeValue;"
+            + "    default: return links(type, value)[0] || null;"
+            + "  }"
+            + "}"
+            + VISIBLE_FUNCTION
+            + "function attr(el, name) {"
+            + "  var p = el[name];"
+            + "  if (typeof p == 'boolean') { return p ? 'true' : null; }"
+            + "  if (p !== undefined && p !== null && typeof p != 'object' && typeof p != 'function') { return String(p); }"
+            + "  return el.getAttribute(name);"
+            + "}"
+            + "function holds(el, condition, a1, a2) {"
+            + "  var v;"
+            + "  switch (condition) {"
+            + "    case 'PRESENT': return !!el;"
+            + "    case 'NOT_PRESENT': return !el;"
+            + "    case 'VISIBLE': return !!el && visible(el);"
+            + "    case 'NOT_VISIBLE': return !el || !visible(el);"
+            + "    case 'TEXT_PRESENT': return !!el && text(el).indexOf(a1) >= 0;"
+            + "    case 'ATTRIBUTE_PRESENT': return !!el && attr(el, a1) !== null;"
+            + "    case 'ATTRIBUTE_NOT_PRESENT': return !el || attr(el, a1) === null;"
+            + "    case 'ATTRIBUTE_VALUE_PRESENT': v = el ? attr(el, a1) : null; return v !== null && v.indexOf(a2) >= 0;"
+            + "    case 'ATTRIBUTE_VALUE_NOT_PRESENT': v = el ? attr(el, a1) : null; return v === null || v.indexOf(a2) < 0;"
+            + "  }"
+            + "  throw new Error('unknown condition ' + condition);"
+            + "}";
+
+    /**
+     * Call back with the result of check() as soon as it is true or a list of elements, or with false at the timeout.
+     * Errors are returned as "error: message".
+     */
+    static final String WAIT_FUNCTIONS = ""
+            + "function waitFor(check, timeout, callback) {"
+            + "  var done = false, observer, timer, poller;"
+            + "  function finish(result) {"
+            + "    if (done) { return; }"
+            + "    done = true;"
+            + "    if (observer) { observer.disconnect(); }"
+            + "    clearTimeout(timer);"
+            + "    clearInterval(poller);"
+            + "    document.removeEventListener('input', test, true);"
+            + "    document.removeEventListener('change', test, true);"
+            + "    callback(result);"
+            + "  }"
+            + "  function test() {"
+            + "    try { var result = check(); if (result) { finish(result); } } catch (e) { finish('error: ' + e.message); }"
+            + "  }"
+            + "  test();"
+            + "  if (done) { return; }"
+            + "  if (window.MutationObserver) {"
+            + "    observer = new window.MutationObserver(test);"
+            + "    observer.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});"
+            + "  }"
+            + "  document.addEventListener('input', test, true);"
+            + "  document.addEventListener('change', test, true);"
+            + "  poller = setInterval(test, window.MutationObserver ? 250 : 50);"
+            + "  timer = setTimeout(function () { finish(false); }, timeout);"
+            + "}";
+
+    // arguments: locator type, locator value, element (instead of the locator), condition, arg1, arg2, timeout in ms
+    private static final String WAIT_SCRIPT = DOM_FUNCTIONS + WAIT_FUNCTIONS
+            + "var args = arguments;"
+            + "waitFor(function () { return holds(find(args[0], args[1], args[2]), args[3], args[4], args[5]); },"
+            + "    args[6], args[args.length - 1]);";
+
+    // arguments: locator type, locator value, state, timeout in ms; call back with the elements (none for NOT_VISIBLE)
+    private static final String ELEMENTS_SCRIPT = DOM_FUNCTIONS + WAIT_FUNCTIONS
+            + "var args = arguments;"
+            + "function inState(el, state) {"
+            + "  switch (state) {"
+            + "    case 'PRESENT': return true;"
+            + "    case 'VISIBLE': return visible(el);"
+            + "    case 'NOT_VISIBLE': return !visible(el);"
+            + "    case 'CLICKABLE': return visible(el) && !el.disabled;"
+            + "  }"
+            + "  throw new Error('unknown state ' + state);"
+            + "}"
+            + "waitFor(function () {"
+            + "  var all = findAll(args[0], args[1]);"
+            + "  for (var i = 0; i < all.length; i++) { if (!inState(all[i], args[2])) { return false; } }"
+            + "  return args[2] == 'NOT_VISIBLE' || (all.length > 0 && all);"
+            + "}, args[3], args[args.length - 1]);";
+
+    // arguments: list of [locator type, locator value], timeout in ms; call back with [index, element] of the first found
+    private static final String FIRST_SCRIPT = DOM_FUNCTIONS + WAIT_FUNCTIONS
+            + "var args = arguments;"
+            + "waitFor(function () {"
+            + "  for (var i = 0; i < args[0].length; i++) {"
+            + "    var el = find(args[0][i][0], args[0][i][1]);"
+            + "    if (el) { return [i, el]; }"
+            + "  }"
+            + "  return false;"
+            + "}, args[1], args[args.length - 1]);";
+
+    // evaluate(condition) for the conditions of ElementCondition.toScriptArgument
+    static final String EVALUATE_FUNCTION = ""
+            + "function evaluate(c) {"
+            + "  if (c.of) {"
+            + "    for (var i = 0; i < c.of.length; i++) {"
+            + "      if (evaluate(c.of[i]) != c.all) { return !c.all; }"
+            + "    }"
+            + "    return c.all;"
+            + "  }"
+            + "  return holds(find(c.type, c.value, null), c.condition, c.a1, c.a2);"
+            + "}";
+
+    // arguments: condition (ElementCondition.toScriptArgument), timeout in ms
+    private static final String CONDITION_SCRIPT = DOM_FUNCTIONS + WAIT_FUNCTIONS + EVALUATE_FUNCTION
+            + "var args = arguments;"
+            + "waitFor(function () { return evaluate(args[0]); }, args[1], args[args.length - 1]);";
+
+    // argument: condition (ElementCondition.toScriptArgument); return the descriptions of the conditions that do not hold
+    private static final String NOT_HOLDING_SCRIPT = DOM_FUNCTIONS + EVALUATE_FUNCTION
+            + "var notHolding = [];"
+            + "function collect(c) {"
+            + "  if (c.of) { for (var i = 0; i < c.of.length; i++) { collect(c.of[i]); } }"
+            + "  else if (!evaluate(c)) { notHolding.push(c.description); }"
+            + "}"
+            + "collect(arguments[0]);"
+            + "return notHolding;";
+
+    private DomWait() {
+    }
+
+    /**
+     * Wait in the browser for the condition on an element
+     *
+     * @param pDriver (WebDriver) must be a JavascriptExecutor
+     * @param pTarget (Object) a By or a WebElement
+     * @param pCondition (Condition)
+     * @param pTimeoutMillis longest wait
+     * @param pArgs the attribute name, the text or the value the condition needs
+     * @return TRUE when the condition holds, FALSE at the timeout, null if it cannot be checked in the browser
+     */
+    static Boolean until(WebDriver pDriver, Object pTarget, Condition pCondition, long pTimeoutMillis, String... pArgs) {
+        Object[] locator = toScriptLocator(pTarget);
+        if (locator == null || !(pDriver instanceof JavascriptExecutor)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        long deadline = start + pTimeoutMillis;
+        Object result = runInChunks((JavascriptExecutor) pDriver, deadline, WAIT_SCRIPT, locator[0], locator[1], locator[2],
+                pCondition.name(), pArgs.length > 0 ? pArgs[0] : null, pArgs.length > 1 ? pArgs[1] : null);
+        if (result instanceof Boolean) {
+            SeleniumMetrics.get().histogram("wait.inBrowser|" + pCondition).record(System.currentTimeMillis() - start);
+            return (Boolean) result;
+        }
+        log.debug("Unable to wait for " + pCondition + " in the browser (" + result + "), polling instead.");
+        SeleniumMetrics.get().counter("wait.inBrowser.fallbacks").increment();
+        return null;
+    }
+
+    /**
+     * Wait in the browser for the condition, allOf and anyOf included, checked in one script
+     *
+     * @param pDriver (WebDriver) must be a JavascriptExecutor
+     * @param pCondition (ElementCondition)
+     * @param pTimeoutMillis longest wait
+     * @return TRUE when the condition holds, FALSE at the timeout, null if it cannot be checked in the browser
+     */
+    static Boolean until(WebDriver pDriver, ElementCondition pCondition, long pTimeoutMillis) {
+        Map<String, Object> argument = pCondition.toScriptArgument();
+        if (argument == null || !(pDriver instanceof JavascriptExecutor)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        Object result = runInChunks((JavascriptExecutor) pDriver, start + pTimeoutMillis, CONDITION_SCRIPT, argument);
+        if (result instanceof Boolean) {
+            SeleniumMetrics.get().histogram("wait.inBrowser|CONDITION").record(System.currentTimeMillis() - start);
+            return (Boolean) result;
+        }
+        log.debug("Unable to wait for " + pCondition + " in the browser (" + result + "), polling instead.");
+        SeleniumMetrics.get().counter("wait.inBrowser.fallbacks").increment();
+        return null;
+    }
+
+    /**
+     * Wait in the browser for every element found by the locator to be in the state, checking them all in one script
+     *
+     * @param pDriver (WebDriver) must be a JavascriptExecutor
+     * @param pLocator (By)
+     * @param pState (ElementsState)
+     * @param pTimeoutMillis longest wait
+     * @return (List) the elements, empty for NOT_VISIBLE, null if they cannot be checked in the browser
+     * @throws TimeoutException if the elements are not in the state in time
+     */
+    @SuppressWarnings("unchecked")
+    static List<WebElement> untilAll(WebDriver pDriver, By pLocator, ElementsState pState, long pTimeoutMillis) {
+        Object[] locator = toScriptLocator(pLocator);
+        if (locator == null || !(pDriver instanceof JavascriptExecutor)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        Object result = runInChunks((JavascriptExecutor) pDriver, start + pTimeoutMillis, ELEMENTS_SCRIPT,
+                locator[0], locator[1], pState.name());
+        if (Boolean.FALSE.equals(result)) {
+            throw new TimeoutException("Timed out after " + pTimeoutMillis + " ms waiting for all the elements located by "
+                    + pLocator + " to be " + pState);
+        }
+        if (Boolean.TRUE.equals(result) || result instanceof List) {
+            SeleniumMetrics.get().histogram("wait.inBrowser|ELEMENTS_" + pState).record(System.currentTimeMillis() - start);
+            return Boolean.TRUE.equals(result) ? Collections.emptyList() : (List<WebElement>) result;
+        }
+        log.debug("Unable to wait for the elements " + pLocator + " in the browser (" + result + "), polling instead.");
+        SeleniumMetrics.get().counter("wait.inBrowser.fallbacks").increment();
+        return null;
+    }
+
+    /**
+     * Wait in the browser for one of the locators to find an element, checking them all in one script.
+     * When several find an element at the same time, the first in the list wins.
+     *
+     * @param pDriver (WebDriver) must be a JavascriptExecutor
+     * @param pLocators (List) the locators, in order of preference
+     * @param pTimeoutMillis longest wait
+     * @return (Object[]) {index of the locator (Integer), element (WebElement)}, null if one of the locators
+     * cannot be found in the browser
+     * @throws TimeoutException if no locator finds an element in time
+     */
+    static Object[] untilFirst(WebDriver pDriver, List<By> pLocators, long pTimeoutMillis) {
+        if (!(pDriver instanceof JavascriptExecutor)) {
+            return null;
+        }
+        List<List<Object>> locators = new ArrayList<>();
+        for (By by : pLocators) {
+            Object[] locator = toScriptLocator(by);
+            if (locator == null) {
+                return null;
+            }
+            locators.add(Arrays.asList(locator[0], locator[1]));
+        }
+        long start = System.currentTimeMillis();
+        Object result = runInChunks((JavascriptExecutor) pDriver, start + pTimeoutMillis, FIRST_SCRIPT, locators);
+        if (Boolean.FALSE.equals(result)) {
+            throw new TimeoutException("Timed out after " + pTimeoutMillis + " ms waiting for an element located by one of "
+                    + pLocators);
+        }
+        if (result instanceof List && ((List<?>) result).size() == 2) {
+            SeleniumMetrics.get().histogram("wait.inBrowser|FIRST").record(System.currentTimeMillis() - start);
+            List<?> first = (List<?>) result;
+            return new Object[] {((Number) first.get(0)).intValue(), first.get(1)};
+        }
+        log.debug("Unable to wait for one of " + pLocators + " in the browser (" + result + "), polling instead.");
+        SeleniumMetrics.get().counter("wait.inBrowser.fallbacks").increment();
+        return null;
+    }
+
+    /**
+     * Describe the conditions that do not hold now, to explain a timeout
+     *
+     * @param pDriver (WebDriver) must be a JavascriptExecutor
+     * @param pCondition (ElementCondition)
+     * @return (String) e.g. "[visible(By.id: a)]", or the whole condition if it cannot be checked in the browser
+     */
+    static String describeNotHolding(WebDriver pDriver, ElementCondition pCondition) {
+        Map<String, Object> argument = pCondition.toScriptArgument();
+        if (argument != null && pDriver instanceof JavascriptExecutor) {
+            try {
+                return String.valueOf(((JavascriptExecutor) pDriver).executeScript(NOT_HOLDING_SCRIPT, argument));
+            } catch (WebDriverException e) {
+                log.debug("Unable to check " + pCondition + " in the browser: " + e.getMessage());
+            }
+        }
+        return pCondition.toString();
+    }
+
+    /**
+     * Run a wait script (its last argument before the callback is the timeout) until it returns true or the deadline.
+     * The script waits in chunks to stay under the script timeout of the driver, and runs again when the page
+     * navigates while it waits.
+     *
+     * @return (Object) TRUE or the elements, FALSE at the deadline, or the error (String) if the script cannot run
+     */
+    static Object runInChunks(JavascriptExecutor pJs, long pDeadline, String pScript, Object... pArgs) {
+        Object[] args = Arrays.copyOf(pArgs, pArgs.length + 1);
+        int failures = 0;
+        long remaining;
+        while ((remaining = pDeadline - System.currentTimeMillis()) > 0) {
+            args[args.length - 1] = Math.min(remaining, MAX_SCRIPT_WAIT_MILLIS);
+            try {
+                Object result = pJs.executeAsyncScript(pScript, args);
+                if (!Boolean.FALSE.equals(result)) {
+                    return result;
+                }
+                failures = 0;
+            } catch (StaleElementReferenceException e) {
+                return e.getClass().getSimpleName();
+            } catch (WebDriverException e) {
+                // the script is lost when the page navigates while waiting: try again on the new page
+                if (++failures >= MAX_FAILURES) {
+                    return e.getClass().getSimpleName() + ": " + e.getMessage();
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return "interrupted";
+                }
+            }
+        }
+        return Boolean.FALSE;
+    }
+
+    /**
+     * @return {type, value, element} for the script, null if the locator cannot be found in the browser
+     */
+    static Object[] toScriptLocator(Object pTarget) {
+        if (pTarget instanceof WebElement) {
+            return new Object[] {null, null, pTarget};
+        }
+        if (pTarget instanceof By) {
+            String locator = BrowserDriver.getByLocator((By) pTarget);
+            int posEqualSign = locator == null ? -1 : locator.indexOf('=');
+            if (posEqualSign > 0 && SUPPORTED_LOCATORS.contains(locator.substring(0, posEqualSign))) {
+                return new Object[] {locator.substring(0, posEqualSign), locator.substring(posEqualSign + 1), null};
+            }
+        }
+        return null;
+    }
+}
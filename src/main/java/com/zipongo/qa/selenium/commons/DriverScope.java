@@ -0,0 +1,15 @@
+package com.zipongo.qa.selenium.commons;
+
+/**
+ * How long BrowserDriver keeps a browser.
+ * With FEATURE and SUITE, BrowserDriver.close() only resets the browser state (windows, storage, cookies, page)
+ * so the next scenario reuses it.
+ */
+public enum DriverScope {
+    /** a new browser for each scenario */
+    SCENARIO,
+    /** the browser is kept for the scenarios of the same feature */
+    FEATURE,
+    /** the browser is kept until the end of the run */
+    SUITE
+}
@@ -0,0 +1,102 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.zipongo.qa.selenium.commons.metrics.SeleniumMetrics;
+import org.openqa.selenium.By;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.Locatable;
+import org.openqa.selenium.internal.WrapsElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The elements found by locator in one session, so the BrowserDriver helpers acting on the same locator
+ * do not find the element again. BrowserDriver clears it on navigation, refresh, window switches,
+ * when the browser is reset for the next scenario or closed,
+ * and when the driver of the session changes.
+ * The elements are proxies: when the element is stale (the page changed it), it is found again from its locator
+ * and the call is retried once.
+ */
+class ElementCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ElementCache.class);
+
+    private final Map<By, WebElement> elements = new HashMap<>();
+    private WebDriver driver; // driver of the cached elements
+
+    /**
+     * Return the cached element of the locator, finding it the first time
+     *
+     * @param pDriver (WebDriver) driver of the session
+     * @param pLocator (By)
+     * @return (WebElement) a proxy finding the element again when it is stale
+     * @throws org.openqa.selenium.NoSuchElementException if the element is not found
+     */
+    synchronized WebElement find(WebDriver pDriver, By pLocator) {
+        if (pDriver != driver) {
+            elements.clear();
+            driver = pDriver;
+        }
+        WebElement element = elements.get(pLocator);
+        if (element != null) {
+            SeleniumMetrics.get().counter("elementCache.hits").increment();
+            return element;
+        }
+        SeleniumMetrics.get().counter("elementCache.misses").increment();
+        element = (WebElement) Proxy.newProxyInstance(ElementCache.class.getClassLoader(),
+                new Class<?>[] {WebElement.class, WrapsElement.class, Locatable.class},
+                new RefindingHandler(pDriver, pLocator, pDriver.findElement(pLocator)));
+        elements.put(pLocator, element);
+        return element;
+    }
+
+    /**
+     * Forget every element, e.g. after a navigation
+     */
+    synchronized void clear() {
+        elements.clear();
+    }
+
+    private static class RefindingHandler implements InvocationHandler {
+
+        private final WebDriver driver;
+        private final By locator;
+        private volatile WebElement element;
+
+        RefindingHandler(WebDriver pDriver, By pLocator, WebElement pElement) {
+            this.driver = pDriver;
+            this.locator = pLocator;
+            this.element = pElement;
+        }
+
+        @Override
+        public Object invoke(Object pProxy, Method pMethod, Object[] pArgs) throws Throwable {
+            if ("getWrappedElement".equals(pMethod.getName()) && pMethod.getParameterCount() == 0) {
+                return element;
+            }
+            try {
+                return pMethod.invoke(element, pArgs);
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof StaleElementReferenceException)) {
+                    throw e.getCause();
+                }
+            }
+            log.info("Element " + locator + " is stale, finding it again for " + pMethod.getName());
+            SeleniumMetrics.get().counter("elementCache.staleRetries").increment();
+            element = driver.findElement(locator);
+            try {
+                return pMethod.invoke(element, pArgs);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
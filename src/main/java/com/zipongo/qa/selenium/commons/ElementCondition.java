@@ -0,0 +1,197 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A condition on the elements of the page, composable with allOf and anyOf, to wait for several
+ * conditions together under one timeout with BrowserDriver.waitForCondition, e.g.
+ * <pre>
+ * BrowserDriver.waitForCondition(allOf(visible(By.id("a")), textPresent(By.id("b"), "Saved"),
+ *         attributeValuePresent(By.id("c"), "class", "active")));
+ * </pre>
+ * The whole condition is checked in one script in the browser each time the page changes,
+ * or in one poll of WebDriverWait when it cannot be checked in the browser.
+ * The NOT conditions also hold when the element is missing, the value conditions check that the attribute contains the value.
+ * An ElementCondition is immutable.
+ */
+public final class ElementCondition {
+
+    private final DomWait.Condition condition; // null for allOf and anyOf
+    private final By locator;
+    private final String[] args;
+    private final boolean all;
+    private final List<ElementCondition> conditions;
+
+    private ElementCondition(DomWait.Condition pCondition, By pLocator, String... pArgs) {
+        this.condition = pCondition;
+        this.locator = pLocator;
+        this.args = pArgs;
+        this.all = false;
+        this.conditions = Collections.emptyList();
+    }
+
+    private ElementCondition(boolean pAll, ElementCondition... pConditions) {
+        if (pConditions.length == 0) {
+            throw new IllegalArgumentException((pAll ? "allOf" : "anyOf") + " needs at least one condition");
+        }
+        this.condition = null;
+        this.locator = null;
+        this.args = new String[0];
+        this.all = pAll;
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(pConditions)));
+    }
+
+    /**
+     * @param pConditions conditions that must all hold
+     * @return (ElementCondition)
+     */
+    public static ElementCondition allOf(ElementCondition... pConditions) {
+        return new ElementCondition(true, pConditions);
+    }
+
+    /**
+     * @param pConditions conditions of which one must hold
+     * @return (ElementCondition)
+     */
+    public static ElementCondition anyOf(ElementCondition... pConditions) {
+        return new ElementCondition(false, pConditions);
+    }
+
+    public static ElementCondition present(By pLocator) {
+        return new ElementCondition(DomWait.Condition.PRESENT, pLocator);
+    }
+
+    public static ElementCondition notPresent(By pLocator) {
+        return new ElementCondition(DomWait.Condition.NOT_PRESENT, pLocator);
+    }
+
+    public static ElementCondition visible(By pLocator) {
+        return new ElementCondition(DomWait.Condition.VISIBLE, pLocator);
+    }
+
+    public static ElementCondition notVisible(By pLocator) {
+        return new ElementCondition(DomWait.Condition.NOT_VISIBLE, pLocator);
+    }
+
+    public static ElementCondition textPresent(By pLocator, String pText) {
+        return new ElementCondition(DomWait.Condition.TEXT_PRESENT, pLocator, pText);
+    }
+
+    public static ElementCondition attributePresent(By pLocator, String pAttribute) {
+        return new ElementCondition(DomWait.Condition.ATTRIBUTE_PRESENT, pLocator, pAttribute);
+    }
+
+    public static ElementCondition attributeNotPresent(By pLocator, String pAttribute) {
+        return new ElementCondition(DomWait.Condition.ATTRIBUTE_NOT_PRESENT, pLocator, pAttribute);
+    }
+
+    public static ElementCondition attributeValuePresent(By pLocator, String pAttribute, String pValue) {
+        return new ElementCondition(DomWait.Condition.ATTRIBUTE_VALUE_PRESENT, pLocator, pAttribute, pValue);
+    }
+
+    public static ElementCondition attributeValueNotPresent(By pLocator, String pAttribute, String pValue) {
+        return new ElementCondition(DomWait.Condition.ATTRIBUTE_VALUE_NOT_PRESENT, pLocator, pAttribute, pValue);
+    }
+
+    /**
+     * Return the condition as the argument of the DomWait scripts: {all, of} or {type, value, condition, a1, a2, description}
+     *
+     * @return (Map) null if a locator cannot be found in the browser
+     */
+    Map<String, Object> toScriptArgument() {
+        Map<String, Object> argument = new HashMap<>();
+        if (condition == null) {
+            List<Map<String, Object>> of = new ArrayList<>();
+            for (ElementCondition elementCondition : conditions) {
+                Map<String, Object> child = elementCondition.toScriptArgument();
+                if (child == null) {
+                    return null;
+                }
+                of.add(child);
+            }
+            argument.put("all", all);
+            argument.put("of", of);
+            return argument;
+        }
+        Object[] scriptLocator = DomWait.toScriptLocator(locator);
+        if (scriptLocator == null) {
+            return null;
+        }
+        argument.put("type", scriptLocator[0]);
+        argument.put("value", scriptLocator[1]);
+        argument.put("condition", condition.name());
+        argument.put("a1", args.length > 0 ? args[0] : null);
+        argument.put("a2", args.length > 1 ? args[1] : null);
+        argument.put("description", toString());
+        return argument;
+    }
+
+    /**
+     * Check the condition with WebDriver commands, for the polling when it cannot be checked in the browser
+     *
+     * @param pDriver (WebDriver)
+     * @return (boolean) whether the condition holds
+     */
+    boolean holds(WebDriver pDriver) {
+        if (condition == null) {
+            return all ? conditions.stream().allMatch(c -> c.holds(pDriver)) : conditions.stream().anyMatch(c -> c.holds(pDriver));
+        }
+        List<WebElement> found = pDriver.findElements(locator);
+        WebElement element = found.isEmpty() ? null : found.get(0);
+        String attribute;
+        switch (condition) {
+            case PRESENT:
+                return element != null;
+            case NOT_PRESENT:
+                return element == null;
+            case VISIBLE:
+                return element != null && element.isDisplayed();
+            case NOT_VISIBLE:
+                return element == null || !element.isDisplayed();
+            case TEXT_PRESENT:
+                return element != null && element.getText().contains(args[0]);
+            case ATTRIBUTE_PRESENT:
+                return element != null && element.getAttribute(args[0]) != null;
+            case ATTRIBUTE_NOT_PRESENT:
+                return element == null || element.getAttribute(args[0]) == null;
+            case ATTRIBUTE_VALUE_PRESENT:
+                attribute = element == null ? null : element.getAttribute(args[0]);
+                return attribute != null && attribute.contains(args[1]);
+            case ATTRIBUTE_VALUE_NOT_PRESENT:
+                attribute = element == null ? null : element.getAttribute(args[0]);
+                return attribute == null || !attribute.contains(args[1]);
+            default:
+                throw new IllegalStateException("Unknown condition " + condition);
+        }
+    }
+
+    /**
+     * @return (String) e.g. "allOf(visible(By.id: a), textPresent(By.id: b, Saved))"
+     */
+    @Override
+    public String toString() {
+        if (condition == null) {
+            return (all ? "allOf(" : "anyOf(") + conditions.stream().map(ElementCondition::toString)
+                    .collect(Collectors.joining(", ")) + ")";
+        }
+        StringBuilder description = new StringBuilder();
+        for (String word : condition.name().toLowerCase().split("_")) {
+            description.append(description.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        description.append('(').append(locator);
+        for (String arg : args) {
+            description.append(", ").append(arg);
+        }
+        return description.append(')').toString();
+    }
+}
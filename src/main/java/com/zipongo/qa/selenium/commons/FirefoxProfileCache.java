@@ -0,0 +1,147 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.zipongo.qa.selenium.commons.util.AtomicFiles;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of encoded Firefox profiles (the zipped and base64 encoded profile sent in the firefox_profile capability),
+ * keyed by the preferences and extensions of the profile.
+ * A profile is built and encoded once per JVM, and optionally kept on disk for the next runs.
+ * The encoded profile can be given as is to the firefox_profile capability.
+ */
+public class FirefoxProfileCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FirefoxProfileCache.class);
+    private static final Map<String, String> encodedProfiles = new ConcurrentHashMap<>();
+    private static volatile File cacheDir; // null to keep the profiles in memory only
+
+    private FirefoxProfileCache() {
+    }
+
+    /**
+     * Keep the encoded profiles in this directory between runs
+     *
+     * @param pCacheDir (File) null to keep them in memory only
+     */
+    public static void setCacheDir(File pCacheDir) {
+        cacheDir = pCacheDir;
+    }
+
+    /**
+     * Return the encoded profile with these preferences, accepting untrusted certificates.
+     *
+     * @param pPreferences preference name to String, Integer or Boolean value
+     * @return (String) the encoded profile
+     */
+    public static String getEncodedProfile(Map<String, Object> pPreferences) {
+        return getEncodedProfile(pPreferences, Collections.emptyList());
+    }
+
+    /**
+     * Return the encoded profile with these preferences and extensions, accepting untrusted certificates.
+     *
+     * @param pPreferences preference name to String, Integer or Boolean value
+     * @param pExtensions extension files to install
+     * @return (String) the encoded profile
+     */
+    public static String getEncodedProfile(Map<String, Object> pPreferences, List<File> pExtensions) {
+        String key = keyOf(pPreferences, pExtensions);
+        return encodedProfiles.computeIfAbsent(key, k -> loadOrEncode(k, pPreferences, pExtensions));
+    }
+
+    /**
+     * Build a new profile with these preferences and extensions, accepting untrusted certificates.
+     *
+     * @param pPreferences preference name to String, Integer or Boolean value
+     * @param pExtensions extension files to install
+     * @return (FirefoxProfile)
+     */
+    public static FirefoxProfile buildProfile(Map<String, Object> pPreferences, List<File> pExtensions) {
+        FirefoxProfile profile = new FirefoxProfile();
+        profile.setAcceptUntrustedCertificates(true);
+        profile.setAssumeUntrustedCertificateIssuer(true);
+        pExtensions.forEach(profile::addExtension);
+        pPreferences.forEach((name, value) -> {
+            if (value instanceof Boolean) {
+                profile.setPreference(name, (Boolean) value);
+            } else if (value instanceof Integer) {
+                profile.setPreference(name, (Integer) value);
+            } else {
+                profile.setPreference(name, String.valueOf(value));
+            }
+        });
+        return profile;
+    }
+
+    private static String loadOrEncode(String pKey, Map<String, Object> pPreferences, List<File> pExtensions) {
+        File dir = cacheDir;
+        File file = dir == null ? null : new File(dir, sha256(pKey) + ".profile");
+        if (file != null && file.isFile()) {
+            try {
+                log.info("Reading the Firefox profile from " + file);
+                return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+            } catch (IOException e) {
+                log.warn("Unable to read the Firefox profile " + file + " : " + e.toString());
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        String encoded;
+        try {
+            encoded = buildProfile(pPreferences, pExtensions).toJson();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to encode the Firefox profile", e);
+        }
+        log.info("Encoded the Firefox profile in " + (System.currentTimeMillis() - start) + " ms ("
+                + encoded.length() + " characters).");
+
+        if (file != null) {
+            try {
+                AtomicFiles.write(file, encoded.getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                log.warn("Unable to write the Firefox profile " + file + " : " + e.toString());
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * The preferences sorted by name, and the extensions with their size and date so a new version is not missed
+     */
+    private static String keyOf(Map<String, Object> pPreferences, List<File> pExtensions) {
+        StringBuilder key = new StringBuilder();
+        new TreeMap<>(pPreferences).forEach((name, value) ->
+                key.append(name).append('=').append(value).append(':').append(value.getClass().getSimpleName()).append('\n'));
+        pExtensions.forEach(extension ->
+                key.append("extension=").append(extension.getAbsolutePath()).append(':').append(extension.length())
+                        .append(':').append(extension.lastModified()).append('\n'));
+        return key.toString();
+    }
+
+    private static String sha256(String pText) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(pText.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,49 +1,93 @@
 package com.zipongo.qa.selenium.commons;
 
+import com.zipongo.qa.selenium.commons.metrics.MetricsCommandExecutor;
+import com.zipongo.qa.selenium.commons.metrics.SeleniumMetrics;
+import com.zipongo.qa.selenium.commons.util.NamedDaemonThreadFactory;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import org.openqa.selenium.Dimension;
 import org.openqa.selenium.NotFoundException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxProfile;
 import org.openqa.selenium.ie.InternetExplorerDriver;
+import org.openqa.selenium.remote.BrowserType;
 import org.openqa.selenium.remote.CapabilityType;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
 import org.openqa.selenium.remote.RemoteWebDriver;
-import org.openqa.selenium.remote.UnreachableBrowserException;
 import org.openqa.selenium.safari.SafariOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 
 /**
  * The type Grid factory.
  */
-public class GridFactory {
+public class GridFactory implements Closeable {
 
     private final Logger logger = LoggerFactory.getLogger(GridFactory.class);
     private static final String LOCAL_HUB_URL = "http://localhost:4444/wd/hub";
     private static final Integer TIMEOUT_SECONDS = 30;
-    private static List<URL> listOfHub;
-    private static DesiredCapabilities defaultCapabilities = new DesiredCapabilities();
-    private static String currentHub; // the current hub url
+    private static final int EXECUTOR_QUEUE_SIZE = 64;
+    private static final long HUB_CHECK_INTERVAL_SECONDS = 10;
+    private static final long HUB_STATUS_TTL_SECONDS = 30;
+    private static final int HTTP_TIMEOUT_MILLIS = 5000;
+    private static final int BREAKER_FAILURE_THRESHOLD = 3;
+    private static final long BREAKER_OPEN_MILLIS = 60000;
+    private static final long SATURATED_BACKOFF_MILLIS = 1000; // first backoff when the grid has no free slot
+    private static final long FAILED_BACKOFF_MILLIS = 250; // first backoff when the hubs failed
+    private static final long MAX_BACKOFF_MILLIS = 16000;
+    private static final long MIN_HUB_TIMEOUT_MILLIS = 5000;
+    private static final int COMMAND_CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int COMMAND_READ_TIMEOUT_MILLIS = 300000;
+    private static final int COMMAND_CONNECTIONS_PER_HUB = 50;
+    private static final long ADMISSION_TIMEOUT_SECONDS = 300; // longest wait for a global admission permit
+    private static volatile AdmissionControl admissionControl = new AdmissionControl(0, 0); // shared by every factory
+    private final List<URL> listOfHub;
+    private volatile String currentHub; // the current hub url
+    private final Map<WebDriver, String> hubByDriver = Collections.synchronizedMap(new WeakHashMap<>()); // factory shared by threads
+    private volatile SessionPool sessionPool; // null when the sessions are not pooled
+    private final ThreadPoolExecutor executor; // run the hub requests
+    private final ThreadPoolExecutor asyncExecutor = createAsyncExecutor(); // run the getXXXInstanceAsync calls
+    private final Set<CompletableFuture<WebDriver>> pendingRequests = ConcurrentHashMap.newKeySet();
+    private final CloseableHttpClient httpClient = createHttpClient(); // shared by the httpGet calls
+    private final HubHealthChecker hubHealthChecker;
+    private volatile CommandHttpClientFactory commandClientFactory; // http client of the new sessions
+    private final List<CommandHttpClientFactory> commandClientFactories = new CopyOnWriteArrayList<>(); // closed with the factory
+    private final Map<URL, HubCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final SeleniumMetrics metrics = SeleniumMetrics.get();
+    private volatile Dimension headlessWindowSize; // null when chrome and firefox run with a display
+    private final HubLatencyTracker latencyTracker =
+            new HubLatencyTracker(MIN_HUB_TIMEOUT_MILLIS, TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
 
     /**
      * Constructor with the default primary and secondary hub
@@ -54,9 +98,9 @@ public class GridFactory {
                 .orElseThrow(() -> new NotFoundException("Bad URL")));
 
         logger.info("GridFactory will be use with default hub list: [" + listOfHub + "].");
-
-        // set default capabilities
-        addDefaultCapabilities();
+        executor = createExecutor(listOfHub.size());
+        hubHealthChecker = new HubHealthChecker(listOfHub, this::httpGet, HUB_CHECK_INTERVAL_SECONDS, HUB_STATUS_TTL_SECONDS);
+        setCommandHttpClient(COMMAND_CONNECT_TIMEOUT_MILLIS, COMMAND_READ_TIMEOUT_MILLIS, COMMAND_CONNECTIONS_PER_HUB);
     }
 
     /**
@@ -75,8 +119,64 @@ public class GridFactory {
             listOfHub.add(getURL(LOCAL_HUB_URL).get());
         }
         logger.info("GridFactory will use hub list: " + listOfHub);
-        // set default capabilities
-        addDefaultCapabilities();
+        executor = createExecutor(listOfHub.size());
+        hubHealthChecker = new HubHealthChecker(listOfHub, this::httpGet, HUB_CHECK_INTERVAL_SECONDS, HUB_STATUS_TTL_SECONDS);
+        setCommandHttpClient(COMMAND_CONNECT_TIMEOUT_MILLIS, COMMAND_READ_TIMEOUT_MILLIS, COMMAND_CONNECTIONS_PER_HUB);
+    }
+
+    /**
+     * Create the executor running the hub requests of this factory.
+     * Its threads are daemon so a factory never closed does not keep the JVM alive.
+     *
+     * @param hubCount number of hubs raced by each attempt
+     * @return (ThreadPoolExecutor)
+     */
+    private static ThreadPoolExecutor createExecutor(int hubCount) {
+        // core size = max size: a request must not wait in the queue behind a slow hub while a thread could start,
+        // the idle threads time out instead.
+        int threads = Math.max(4, hubCount * 4);
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(EXECUTOR_QUEUE_SIZE),
+                new NamedDaemonThreadFactory("grid-factory"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * Create the executor running the getXXXInstanceAsync calls. It is separate from the executor
+     * running the hub requests so an async call never waits for a thread its own race needs.
+     *
+     * @return (ThreadPoolExecutor)
+     */
+    private static ThreadPoolExecutor createAsyncExecutor() {
+        int threads = 4;
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(EXECUTOR_QUEUE_SIZE),
+                new NamedDaemonThreadFactory("grid-factory-async"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * Create the http client used by httpGet. Its connections are pooled and kept alive between calls.
+     *
+     * @return (CloseableHttpClient)
+     */
+    private static CloseableHttpClient createHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(20);
+        connectionManager.setDefaultMaxPerRoute(2);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(HTTP_TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(HTTP_TIMEOUT_MILLIS)
+                .setSocketTimeout(HTTP_TIMEOUT_MILLIS)
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
     }
 
     /**
@@ -95,29 +195,9 @@ public class GridFactory {
     }
 
     /**
-     * Add the common capability to custom capabilities
+     * Class to save the Grid URL to the Webdriver
      */
-    private void addDefaultCapabilities()
-    {
-        defaultCapabilities.setCapability("takeScreenshot", true);
-        // get the Jenkins build tag
-        String jenkinsBuildTag = System.getenv("BUILD_TAG");
-        if (jenkinsBuildTag != null && !jenkinsBuildTag.isEmpty()) {
-            defaultCapabilities.setCapability("jenkinsBuildTag", jenkinsBuildTag);
-        }
-        try {
-            String hostName = InetAddress.getLocalHost().getHostName();
-            defaultCapabilities.setCapability("hostName", hostName);
-        } catch (Exception e) {
-            logger.info("Unable to get the Hostname");
-        }
-
-    }
-
-    /**
-     * Private class to save the Grid URL to the Webdriver
-     */
-    private class WebDriverHubURL
+    static class WebDriverHubURL
     {
         private final WebDriver webDriver;
         private final URL url;
@@ -142,75 +222,485 @@ public class GridFactory {
     /**
      * This method will try to provide a Webdriver from the list of grid hubs.
      *
-     * @param capabilities (DesiredCapabilities)
+     * @param capabilities (DesiredCapabilities) created from CapabilityTemplates, with the common capabilities
      * @return (WebDriver) If problem return null.
      * @throws GridFactoryException
      */
     private WebDriver getBrowser(DesiredCapabilities capabilities) throws GridFactoryException {
 
-        // add default capabilities
-        capabilities.merge(defaultCapabilities);
         logger.info("Set capabilities: " + capabilities);
 
-        WebDriverHubURL webDriverHubUrl =
-                getWebDriverHubURL(listOfHub,capabilities,0)
-                    .orElseThrow(()->new GridFactoryException("Could not get WebDriver after 3 attempts"));
+        long start = System.currentTimeMillis();
+        WebDriverHubURL webDriverHubUrl = sessionPool == null ?
+                createBrowser(capabilities) :
+                sessionPool.lease(capabilities);
+        metrics.histogram("session.acquire|" + webDriverHubUrl.getUrl() + "|" + capabilities.getBrowserName())
+                .record(System.currentTimeMillis() - start);
 
         logger.info("Retrieved Remote Webdriver: " + webDriverHubUrl.getWebDriver().toString());
 
         currentHub = webDriverHubUrl.getUrl().toString();
+        hubByDriver.put(webDriverHubUrl.getWebDriver(), currentHub);
         return webDriverHubUrl.getWebDriver();
 
     }
 
+    /**
+     * Create a new WebDriver from the list of grid hubs.
+     *
+     * @param capabilities (DesiredCapabilities)
+     * @return the WebDriver and the hub that created it
+     * @throws GridFactoryException
+     */
+    private WebDriverHubURL createBrowser(DesiredCapabilities capabilities) throws GridFactoryException {
+        return getWebDriverHubURL(hubsWithCapacity(availableHubs(), capabilities.getBrowserName()),capabilities,0)
+                .orElseThrow(()->new GridFactoryException("Could not get WebDriver after 3 attempts"));
+    }
+
+    /**
+     * Check every hub now, in the calling thread, instead of waiting for the background check
+     */
+    void checkHubs() {
+        hubHealthChecker.checkAll();
+    }
+
+    /**
+     * Return the hubs not known to be down. If every hub is known to be down, check them again
+     * before giving up so a hub that just came back is not skipped.
+     *
+     * @return the list of hubs to try
+     * @throws GridFactoryException if every hub is down
+     */
+    private List<URL> availableHubs() throws GridFactoryException {
+        List<URL> hubs = hubHealthChecker.availableHubs(listOfHub);
+        if (hubs.isEmpty()) {
+            logger.info("Every hub is known to be down, checking them again.");
+            hubHealthChecker.checkAll();
+            hubs = hubHealthChecker.availableHubs(listOfHub);
+        }
+        if (hubs.isEmpty()) {
+            throw new GridFactoryException("Every hub is down: " + listOfHub);
+        }
+        return hubs;
+    }
+
+    /**
+     * Remove the hubs known to have no free slot for the browser. If no hub has one, check them again
+     * and fail right away rather than waiting in a hub queue. A hub with unknown capacity is kept.
+     *
+     * @param hubs (List<URL>)
+     * @param browserName (String)
+     * @return the hubs that may have a free slot
+     * @throws GridFactoryException if every hub reports no free slot
+     */
+    List<URL> hubsWithCapacity(List<URL> hubs, String browserName) throws GridFactoryException {
+        List<URL> hubsWithCapacity = withoutFullHubs(hubs, browserName);
+        if (hubsWithCapacity.isEmpty()) {
+            logger.info("No hub has a free slot for " + browserName + ", checking them again.");
+            hubs.forEach(hubHealthChecker::check);
+            hubsWithCapacity = withoutFullHubs(hubs, browserName);
+        }
+        if (hubsWithCapacity.isEmpty()) {
+            metrics.counter("session.noFreeSlot").increment();
+            throw new GridFactoryException("No free slot for " + browserName + " on hubs: " + hubs, true);
+        }
+        return hubsWithCapacity;
+    }
+
+    private List<URL> withoutFullHubs(List<URL> hubs, String browserName) {
+        return hubs.stream()
+                .filter(hub -> hubHealthChecker.freeSlots(hub, browserName) != 0)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Order the hubs for the next attempt: the most free slots for the browser first,
+     * then the hubs with unknown capacity, and the fastest first between hubs with as many free slots.
+     *
+     * @param hubs (List<URL>)
+     * @param browserName (String)
+     * @return (List<URL>) a new sorted list
+     */
+    List<URL> orderHubs(List<URL> hubs, String browserName) {
+        return latencyTracker.fastestFirst(hubs, browserName).stream()
+                // unknown capacity is -1, so these hubs come after the hubs with free slots
+                .sorted(Comparator.comparingInt((URL hub) -> hubHealthChecker.freeSlots(hub, browserName)).reversed())
+                .collect(Collectors.toList());
+    }
+
     private Optional<WebDriverHubURL> getWebDriverHubURL(List<URL> listOfHub, DesiredCapabilities cap, int count)
     {
         if (count > 3) return Optional.empty();
 
-        ExecutorService executor = Executors.newCachedThreadPool();
+        // hubs with an open circuit breaker are out of rotation
+        List<URL> hubs = listOfHub.stream()
+                .filter(hub -> circuitBreaker(hub).allowRequest())
+                .collect(Collectors.toList());
+        AtomicBoolean saturated = new AtomicBoolean(false);
 
-        Optional<WebDriverHubURL> url =
-            listOfHub.stream()
-                .map(hubUrl -> executor.submit(getTask(hubUrl, cap)))
-                .map(this::getDriverFromFuture)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .findAny();
+        Optional<WebDriverHubURL> url;
+        if (hubs.isEmpty()) {
+            logger.error("Every hub is out of rotation (circuit breaker open): " + listOfHub);
+            url = Optional.empty();
+        } else {
+            url = raceHubsWhenAdmitted(hubs, cap, saturated);
+        }
 
-        return url.isPresent() ? url : getWebDriverHubURL(listOfHub,cap,count+1);
+        if (url.isPresent() || count == 3) {
+            return url;
+        }
+        metrics.counter("session.retries").increment();
+        if (!backoff(count, saturated.get() || hubs.isEmpty())) {
+            return Optional.empty();
+        }
+        return getWebDriverHubURL(listOfHub,cap,count+1);
     }
 
     /**
-     * Provide a Callable object to retrieve a RemoteWebDriver
+     * Wait for a global admission permit, then race the hubs ordered by capacity and latency.
+     * The time spent waiting is recorded apart from the hub time, in "session.queueWait|global".
      *
-     * @param hubUrl String URL
+     * @param hubs hubs to race
      * @param cap Capabilities of the Browser
-     * @return Callable object
+     * @param saturated set to true if no permit was given in time or a hub had no free slot
+     * @return Optional WebDriver of the first hub that answered
      */
-    private Callable<WebDriverHubURL> getTask(URL hubUrl, DesiredCapabilities cap)
+    private Optional<WebDriverHubURL> raceHubsWhenAdmitted(List<URL> hubs, DesiredCapabilities cap, AtomicBoolean saturated)
     {
-        logger.info("Creating Callable object for Hub URL: " + hubUrl);
-        return ()->new WebDriverHubURL(new RemoteWebDriver(hubUrl, cap), hubUrl);
+        AdmissionControl admission = admissionControl;
+        long waitStart = System.currentTimeMillis();
+        try
+        {
+            if (!admission.acquire(TimeUnit.SECONDS.toMillis(ADMISSION_TIMEOUT_SECONDS)))
+            {
+                logger.error("No admission for a new session after " + ADMISSION_TIMEOUT_SECONDS + " seconds ("
+                        + admission.describe() + ")");
+                metrics.counter("session.admissionTimeouts").increment();
+                saturated.set(true);
+                return Optional.empty();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        metrics.histogram("session.queueWait|global").record(System.currentTimeMillis() - waitStart);
+        try
+        {
+            // ordered once admitted, the free slots may have changed while waiting
+            return raceHubs(executor, orderHubs(hubs, cap.getBrowserName()), cap, saturated);
+        }
+        finally
+        {
+            admission.release();
+        }
     }
 
     /**
-     * Retrieve a WebDriver object from a Future object
-     * with a timeout of GridFactory.TIMEOUT_SECONDS
+     * Limit the new session requests in flight for the whole JVM, every GridFactory included.
+     * The requests over the limit wait in FIFO order. Their wait is reported apart from the hub time
+     * in the "session.queueWait" histograms of SeleniumMetrics.
      *
-     * @param f Future object that could return a RemoteWebDriver
-     * @return Optional Webdriver object
+     * @param pMaxRequests requests in flight for every hub together, 0 for no limit
+     * @param pMaxRequestsPerHub requests in flight by hub, 0 for no limit
      */
-    private Optional<WebDriverHubURL> getDriverFromFuture(Future<WebDriverHubURL> f)
+    public static void setAdmissionLimits(int pMaxRequests, int pMaxRequestsPerHub) {
+        // the requests in flight give their permit back to the AdmissionControl they got it from
+        admissionControl = new AdmissionControl(pMaxRequests, pMaxRequestsPerHub);
+    }
+
+    /**
+     * Describe the new session requests in flight and waiting for admission
+     *
+     * @return (String)
+     */
+    public static String getAdmissionUsage() {
+        return admissionControl.describe();
+    }
+
+    /**
+     * Sleep before the next attempt: exponential backoff with jitter.
+     * A saturated grid waits longer than a failed hub since another hub is likely to answer right away.
+     *
+     * @param count number of the attempt that just failed
+     * @param pSaturated true if the grid had no free slot
+     * @return false if interrupted
+     */
+    private boolean backoff(int count, boolean pSaturated) {
+        long base = Math.min(MAX_BACKOFF_MILLIS, (pSaturated ? SATURATED_BACKOFF_MILLIS : FAILED_BACKOFF_MILLIS) << count);
+        long delay = base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+        logger.info("Waiting " + delay + " ms before the next attempt" + (pSaturated ? " (grid saturated)." : "."));
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private HubCircuitBreaker circuitBreaker(URL hub) {
+        return circuitBreakers.computeIfAbsent(hub, h -> new HubCircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MILLIS));
+    }
+
+    /**
+     * Ask the hubs for a WebDriver and keep the first one created.
+     * The hubs are tried in the given order. When its p95 is known, the first hub gets that
+     * much head start and the other hubs only start if it fails or is slower than usual.
+     * Each hub has a timeout derived from its measured latency (GridFactory.TIMEOUT_SECONDS when unknown)
+     * and the race ends at the latest of them.
+     * A session created after the race is over (lost or timed out) is quit right away.
+     *
+     * @param executor run the hub requests
+     * @param orderedHubs hubs to race, the preferred one first
+     * @param cap Capabilities of the Browser
+     * @param saturated set to true if a hub had no free slot
+     * @return Optional WebDriver of the first hub that answered
+     */
+    private Optional<WebDriverHubURL> raceHubs(ExecutorService executor, List<URL> orderedHubs, DesiredCapabilities cap,
+                                               AtomicBoolean saturated)
     {
+        String browserName = cap.getBrowserName();
+        long headStartMillis = latencyTracker.p95(orderedHubs.get(0), browserName);
+
+        CompletableFuture<WebDriverHubURL> winner = new CompletableFuture<>();
+        CompletableFuture<Void> leaderDone = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+
+        BooleanSupplier lastFailure = () -> failures.incrementAndGet() == orderedHubs.size();
+        Map<Future<?>, URL> tasks = new LinkedHashMap<>();
+        long deadlineMillis = 0;
+        for (int i = 0; i < orderedHubs.size(); i++)
+        {
+            URL hubUrl = orderedHubs.get(i);
+            boolean leader = i == 0;
+            long startDelay = leader ? 0 : headStartMillis;
+            deadlineMillis = Math.max(deadlineMillis, startDelay + latencyTracker.timeoutMillis(hubUrl, browserName));
+            try
+            {
+                tasks.put(executor.submit(() -> {
+                    if (!leader && !waitForTurn(leaderDone, startDelay, winner))
+                    {
+                        return;
+                    }
+                    runInRace(hubUrl, cap, winner, lastFailure, saturated);
+                    if (leader)
+                    {
+                        leaderDone.complete(null);
+                    }
+                }), hubUrl);
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.error("GridFactory executor is full (" + getExecutorUsage() + "), skipping hub " + hubUrl);
+                if (lastFailure.getAsBoolean())
+                {
+                    winner.completeExceptionally(e);
+                }
+            }
+        }
+
+        long raceMillis = deadlineMillis;
         try
         {
-            return Optional.of(f.get(GridFactory.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            return Optional.of(winner.get(raceMillis, TimeUnit.MILLISECONDS));
         }
-        catch (UnreachableBrowserException | TimeoutException|InterruptedException|ExecutionException e)
+        catch (TimeoutException e)
         {
+            // only an explicit answer of a hub tells it is saturated: a hub still creating its session
+            // at the deadline is failing, so the circuit breaker stops sending it requests if it keeps on
+            tasks.forEach((task, hubUrl) -> {
+                if (!task.isDone())
+                {
+                    logger.warn("Hub " + hubUrl + " did not create a session in " + raceMillis + " ms.");
+                    circuitBreaker(hubUrl).recordFailure();
+                }
+            });
+            metrics.counter("session.timeouts").increment();
             logger.error("Was not able to get WebDriver.  Trying again. : " + e.toString());
             return Optional.empty();
         }
+        catch (ExecutionException e)
+        {
+            logger.error("Was not able to get WebDriver.  Trying again. : " + e.toString());
+            return Optional.empty();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while waiting for a WebDriver : " + e.toString());
+            return Optional.empty();
+        }
+        finally
+        {
+            // close the race so the sessions still being created are quit when they arrive
+            winner.completeExceptionally(new TimeoutException("The race for a WebDriver is over"));
+            tasks.keySet().forEach(task -> task.cancel(true));
+        }
+    }
+
+    /**
+     * Wait until the leader of the race is done or its head start is over.
+     *
+     * @param leaderDone completed when the leader is done
+     * @param headStartMillis head start of the leader
+     * @param winner the race result
+     * @return false if the race is already over
+     */
+    private boolean waitForTurn(CompletableFuture<Void> leaderDone, long headStartMillis,
+                                CompletableFuture<WebDriverHubURL> winner)
+    {
+        try
+        {
+            leaderDone.get(headStartMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException|ExecutionException e)
+        {
+            // the leader is slower than usual, start this hub
+        }
+        catch (InterruptedException e)
+        {
+            return false;
+        }
+        return !winner.isDone();
+    }
+
+    /**
+     * Run one hub of the race once the hub admission permit is given. Complete the winner with the WebDriver,
+     * or quit the WebDriver if another hub already won.
+     *
+     * @param hubUrl hub of the task
+     * @param cap Capabilities of the Browser
+     * @param winner the race result
+     * @param lastFailure tell if this failure was the last hub still running
+     * @param saturated set to true if the hub had no free slot
+     */
+    private void runInRace(URL hubUrl, DesiredCapabilities cap,
+                           CompletableFuture<WebDriverHubURL> winner, BooleanSupplier lastFailure,
+                           AtomicBoolean saturated)
+    {
+        AdmissionControl admission = admissionControl;
+        boolean admitted = false;
+        try
+        {
+            long waitStart = System.currentTimeMillis();
+            admitted = admission.acquire(hubUrl, latencyTracker.timeoutMillis(hubUrl, cap.getBrowserName()));
+            if (!admitted)
+            {
+                throw new GridFactoryException("No free slot in the admission queue of hub " + hubUrl, true);
+            }
+            metrics.histogram("session.queueWait|" + hubUrl).record(System.currentTimeMillis() - waitStart);
+            if (winner.isDone())
+            {
+                return;
+            }
+
+            hubHealthChecker.claimSlot(hubUrl, cap.getBrowserName());
+            long start = System.currentTimeMillis();
+            WebDriverHubURL webDriverHubURL = getTask(hubUrl, cap).call();
+            long latency = System.currentTimeMillis() - start;
+            latencyTracker.record(hubUrl, cap.getBrowserName(), latency);
+            metrics.histogram("session.create|" + hubUrl + "|" + cap.getBrowserName()).record(latency);
+            logger.info("Hub " + hubUrl + " created a session in " + latency + " ms.");
+            circuitBreaker(hubUrl).recordSuccess();
+            if (!winner.complete(webDriverHubURL))
+            {
+                logger.info("Hub " + hubUrl + " answered after the race was over, quitting its session.");
+                quitQuietly(webDriverHubURL.getWebDriver());
+            }
+        }
+        catch (Exception e)
+        {
+            logger.error("Was not able to get WebDriver from " + hubUrl + " : " + e.toString());
+            metrics.counter("session.failures|" + hubUrl).increment();
+            if (GridFactoryException.isSaturation(e))
+            {
+                saturated.set(true);
+            }
+            else if (!winner.isDone())
+            {
+                // a task cancelled at the end of the race is not a failure of its hub
+                circuitBreaker(hubUrl).recordFailure();
+            }
+            if (lastFailure.getAsBoolean())
+            {
+                winner.completeExceptionally(e);
+            }
+        }
+        finally
+        {
+            if (admitted)
+            {
+                admission.release(hubUrl);
+            }
+        }
+    }
+
+    private void quitQuietly(WebDriver driver)
+    {
+        try
+        {
+            driver.quit();
+        }
+        catch (Exception e)
+        {
+            logger.info("Unable to quit " + driver + " : " + e.toString());
+        }
+    }
+
+    /**
+     * Provide a Callable object to retrieve a RemoteWebDriver.
+     * The RemoteWebDriver sends its commands through the shared keep-alive connections of the factory,
+     * and the latency of each command is recorded in SeleniumMetrics.
+     *
+     * @param hubUrl String URL
+     * @param cap Capabilities of the Browser
+     * @return Callable object
+     */
+    private Callable<WebDriverHubURL> getTask(URL hubUrl, DesiredCapabilities cap)
+    {
+        logger.info("Creating Callable object for Hub URL: " + hubUrl);
+        HttpCommandExecutor commandExecutor = new HttpCommandExecutor(Collections.emptyMap(), hubUrl, commandClientFactory);
+        return ()->new WebDriverHubURL(new RemoteWebDriver(new MetricsCommandExecutor(commandExecutor), cap), hubUrl);
+    }
+
+    /**
+     * Set the http client used by the sessions created from now on.
+     * The connections are kept alive and shared by the sessions, up to pMaxConnectionsPerHub by hub.
+     * A value of 0 or less keeps the default: 10 s connect timeout, 5 min read timeout, 50 connections per hub.
+     *
+     * @param pConnectTimeoutMillis timeout to open a connection to a hub
+     * @param pReadTimeoutMillis timeout to wait for the answer of a command, must be longer than the longest page load
+     * @param pMaxConnectionsPerHub connections kept open to each hub
+     */
+    public void setCommandHttpClient(int pConnectTimeoutMillis, int pReadTimeoutMillis, int pMaxConnectionsPerHub) {
+        // the sessions already created keep their client, it is closed with the factory
+        CommandHttpClientFactory clientFactory = new CommandHttpClientFactory(listOfHub,
+                pConnectTimeoutMillis > 0 ? pConnectTimeoutMillis : COMMAND_CONNECT_TIMEOUT_MILLIS,
+                pReadTimeoutMillis > 0 ? pReadTimeoutMillis : COMMAND_READ_TIMEOUT_MILLIS,
+                pMaxConnectionsPerHub > 0 ? pMaxConnectionsPerHub : COMMAND_CONNECTIONS_PER_HUB);
+        commandClientFactories.add(clientFactory);
+        commandClientFactory = clientFactory;
+    }
+
+    /**
+     * Run the Chrome and Firefox browsers created from now on without a display (headless), with a fixed window size.
+     * They start faster and use less CPU on the nodes, but cannot be maximized.
+     *
+     * @param pWindowSize (Dimension) size of the window, null to run the browsers with a display
+     */
+    public void setHeadless(Dimension pWindowSize) {
+        headlessWindowSize = pWindowSize;
+    }
+
+    /**
+     * Describe the usage of the connections of the sessions
+     *
+     * @return (String) e.g. "[leased: 2; pending: 0; available: 3; max: 50]"
+     */
+    public String getCommandConnectionUsage() {
+        return commandClientFactory.getPoolStats();
     }
 
     /**
@@ -224,7 +714,7 @@ public class GridFactory {
         SafariOptions options = new SafariOptions();
         options.setUseCleanSession(true);
 
-        DesiredCapabilities capability = DesiredCapabilities.safari();
+        DesiredCapabilities capability = CapabilityTemplates.forBrowser(BrowserType.SAFARI, DesiredCapabilities::safari);
 
         capability.setCapability(CapabilityType.ACCEPT_SSL_CERTS, true);
         capability.setCapability(SafariOptions.CAPABILITY, options);
@@ -239,7 +729,7 @@ public class GridFactory {
      */
     public WebDriver getInternetExplorerInstance() throws GridFactoryException {
 
-        DesiredCapabilities capability = DesiredCapabilities.internetExplorer();
+        DesiredCapabilities capability = CapabilityTemplates.forBrowser(BrowserType.IE, DesiredCapabilities::internetExplorer);
         capability.setCapability(InternetExplorerDriver.INTRODUCE_FLAKINESS_BY_IGNORING_SECURITY_DOMAINS, true);
         return getBrowser(capability);
     }
@@ -254,35 +744,62 @@ public class GridFactory {
      * @author Danny.Paradis
      */
     public WebDriver getFirefoxInstance(FirefoxProfile pProfile) throws GridFactoryException {
-        FirefoxProfile profile = new FirefoxProfile();
-        if (pProfile != null) {
-            profile = pProfile;
+        if (pProfile == null) {
+            // the empty profile is encoded once
+            return getFirefoxInstanceWithProfile(FirefoxProfileCache.getEncodedProfile(Collections.emptyMap()));
         }
-        DesiredCapabilities capability = DesiredCapabilities.firefox();
+        return getFirefoxInstanceWithProfile(pProfile);
+    }
+
+    /**
+     * Return a WebDriver for FireFox with a profile built from pPreferences.
+     * The profile is encoded once by FirefoxProfileCache and reused by every session with the same preferences.
+     *
+     * @param pPreferences preference name to String, Integer or Boolean value
+     * @return (WebDriver) firefox instance
+     * @throws GridFactoryException the grid factory exception
+     */
+    public WebDriver getFirefoxInstanceFromTemplate(Map<String, Object> pPreferences) throws GridFactoryException {
+        return getFirefoxInstanceWithProfile(FirefoxProfileCache.getEncodedProfile(pPreferences));
+    }
+
+    /**
+     * @param pProfile (Object) a FirefoxProfile or an encoded profile
+     */
+    private WebDriver getFirefoxInstanceWithProfile(Object pProfile) throws GridFactoryException {
+        DesiredCapabilities capability = CapabilityTemplates.forBrowser(BrowserType.FIREFOX, DesiredCapabilities::firefox);
         capability.setCapability(CapabilityType.ACCEPT_SSL_CERTS, true); // TODO DPA move to default capability
-        capability.setCapability(FirefoxDriver.PROFILE, profile);
         capability.setCapability("acceptInsecureCerts", true);
-        capability.setCapability("firefox_profile", profile);
+        capability.setCapability(FirefoxDriver.PROFILE, pProfile);
+        Dimension windowSize = headlessWindowSize;
+        if (windowSize != null) {
+            HeadlessMode.addTo(capability, windowSize);
+        }
         return getBrowser(capability);
-
     }
 
 
     /**
      * Return a WebDriver for Chrome with pOption If pOtions is null set the capability with a new empty Options
+     * The browser is maximized, or headless with a fixed window size after setHeadless
      *
      * @param pOtions (ChromeOptions)
      * @return (WebDriver) chrome instance
      * @throws GridFactoryException the grid factory exception
      */
     public WebDriver getChromeInstance(ChromeOptions pOtions) throws GridFactoryException {
-        DesiredCapabilities capability = DesiredCapabilities.chrome();
+        DesiredCapabilities capability = CapabilityTemplates.forBrowser(BrowserType.CHROME, DesiredCapabilities::chrome);
         ChromeOptions options = new ChromeOptions();
         if (pOtions != null) {
             options = pOtions;
         }
 
-        options.addArguments("--start-maximized");
+        Dimension windowSize = headlessWindowSize;
+        if (windowSize != null) {
+            HeadlessMode.addTo(options, windowSize);
+        } else {
+            options.addArguments("--start-maximized");
+        }
 
         capability.setCapability(ChromeOptions.CAPABILITY, options);
         return getBrowser(capability);
@@ -295,11 +812,196 @@ public class GridFactory {
      * @throws GridFactoryException the grid factory exception
      */
     public WebDriver getPhantomJSInstance() throws GridFactoryException {
-        DesiredCapabilities capability = DesiredCapabilities.phantomjs();
+        DesiredCapabilities capability = CapabilityTemplates.forBrowser(BrowserType.PHANTOMJS, DesiredCapabilities::phantomjs);
         return getBrowser(capability);
     }
 
 
+    /**
+     * Request a WebDriver in background. The caller can do something else and join the future when it needs the browser.
+     * The future completes exceptionally with the GridFactoryException if no WebDriver can be created.
+     * If the future is cancelled, the WebDriver created after is released or quit.
+     *
+     * @param browserRequest (BrowserRequest) the blocking request to run, e.g. GridFactory::getChromeInstance
+     * @return (CompletableFuture<WebDriver>)
+     */
+    private CompletableFuture<WebDriver> getBrowserAsync(BrowserRequest browserRequest) {
+        CompletableFuture<WebDriver> future = new CompletableFuture<>();
+        pendingRequests.add(future);
+        future.whenComplete((webDriver, e) -> pendingRequests.remove(future));
+        try {
+            asyncExecutor.execute(() -> {
+                if (future.isDone()) {
+                    return; // cancelled before it started
+                }
+                try {
+                    WebDriver webDriver = browserRequest.get();
+                    if (!future.complete(webDriver)) {
+                        logger.info("WebDriver request was cancelled, giving back " + webDriver);
+                        if (!releaseBrowser(webDriver)) {
+                            quitQuietly(webDriver);
+                        }
+                    }
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new GridFactoryException("Too many WebDriver requests pending", e));
+        }
+        return future;
+    }
+
+    /**
+     * A blocking WebDriver request
+     */
+    private interface BrowserRequest {
+        WebDriver get() throws GridFactoryException;
+    }
+
+    /**
+     * Get a Safari instance in background
+     *
+     * @return (CompletableFuture<WebDriver>) safari instance
+     */
+    public CompletableFuture<WebDriver> getSafariInstanceAsync() {
+        return getBrowserAsync(this::getSafariInstance);
+    }
+
+    /**
+     * Get an internet explorer instance in background
+     *
+     * @return (CompletableFuture<WebDriver>) internet explorer instance
+     */
+    public CompletableFuture<WebDriver> getInternetExplorerInstanceAsync() {
+        return getBrowserAsync(this::getInternetExplorerInstance);
+    }
+
+    /**
+     * Get a FireFox instance in background, see getFirefoxInstance
+     *
+     * @param pProfile (FirefoxProfile)
+     * @return (CompletableFuture<WebDriver>) firefox instance
+     */
+    public CompletableFuture<WebDriver> getFirefoxInstanceAsync(FirefoxProfile pProfile) {
+        return getBrowserAsync(() -> getFirefoxInstance(pProfile));
+    }
+
+    /**
+     * Get a FireFox instance in background, see getFirefoxInstanceFromTemplate
+     *
+     * @param pPreferences preference name to String, Integer or Boolean value
+     * @return (CompletableFuture<WebDriver>) firefox instance
+     */
+    public CompletableFuture<WebDriver> getFirefoxInstanceFromTemplateAsync(Map<String, Object> pPreferences) {
+        return getBrowserAsync(() -> getFirefoxInstanceFromTemplate(pPreferences));
+    }
+
+    /**
+     * Get a Chrome instance in background, see getChromeInstance
+     *
+     * @param pOtions (ChromeOptions)
+     * @return (CompletableFuture<WebDriver>) chrome instance
+     */
+    public CompletableFuture<WebDriver> getChromeInstanceAsync(ChromeOptions pOtions) {
+        return getBrowserAsync(() -> getChromeInstance(pOtions));
+    }
+
+    /**
+     * Get a phantom js instance in background
+     *
+     * @return (CompletableFuture<WebDriver>) phantom js instance
+     */
+    public CompletableFuture<WebDriver> getPhantomJSInstanceAsync() {
+        return getBrowserAsync(this::getPhantomJSInstance);
+    }
+
+    /**
+     * Keep pIdleSessions sessions created ahead of time for each capability set requested.
+     * The getXXXInstance methods then lease a session from the pool, and releaseBrowser gives it back.
+     *
+     * @param pIdleSessions number of idle sessions by capability set
+     * @param pHeartbeatSeconds delay between two cheap commands sent to the idle sessions to keep them alive
+     */
+    public synchronized void enableSessionPool(int pIdleSessions, long pHeartbeatSeconds) {
+        if (sessionPool != null) {
+            sessionPool.close();
+        }
+        logger.info("Enabling session pool with " + pIdleSessions + " idle sessions by capability set.");
+        sessionPool = new SessionPool(this::createBrowser, pIdleSessions, pHeartbeatSeconds);
+    }
+
+    /**
+     * Keep pIdleSessions sessions created ahead of time with a heartbeat every 60 seconds.
+     *
+     * @param pIdleSessions number of idle sessions by capability set
+     */
+    public void enableSessionPool(int pIdleSessions) {
+        enableSessionPool(pIdleSessions, 60);
+    }
+
+    public boolean isSessionPoolEnabled() {
+        return sessionPool != null;
+    }
+
+    /**
+     * Give back a WebDriver leased from the session pool. Its state is reset and it is kept for the next caller.
+     * If the driver does not come from the pool, nothing is done.
+     *
+     * @param pDriver (WebDriver)
+     * @return true if the driver was returned to the pool, false if the caller still has to quit it
+     */
+    public boolean releaseBrowser(WebDriver pDriver) {
+        return sessionPool != null && sessionPool.release(pDriver);
+    }
+
+    /**
+     * Describe the new session latency measured for each hub and browser
+     *
+     * @return (String)
+     */
+    public String getHubLatencyReport() {
+        return latencyTracker.describe();
+    }
+
+    /**
+     * Describe the usage of the executor running the hub requests
+     *
+     * @return (String) e.g. "threads: 2 active / 4 (largest 4, max 8), queue: 0 / 64, completed tasks: 12"
+     */
+    public String getExecutorUsage() {
+        return "threads: " + executor.getActiveCount() + " active / " + executor.getPoolSize()
+                + " (largest " + executor.getLargestPoolSize() + ", max " + executor.getMaximumPoolSize() + ")"
+                + ", queue: " + executor.getQueue().size() + " / " + EXECUTOR_QUEUE_SIZE
+                + ", completed tasks: " + executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Quit the idle sessions of the pool and stop the executors running the hub requests and the async calls.
+     * The command connections are closed too, so the WebDrivers of the factory must be quit before.
+     */
+    @Override
+    public synchronized void close() {
+        if (sessionPool != null) {
+            sessionPool.close();
+            sessionPool = null;
+        }
+        asyncExecutor.shutdownNow();
+        // a request still running quits its WebDriver when it sees its future is done
+        pendingRequests.forEach(future -> future.completeExceptionally(new GridFactoryException("GridFactory closed")));
+        if (!executor.isShutdown()) {
+            logger.info("Closing GridFactory, executor usage: " + getExecutorUsage());
+            executor.shutdownNow();
+        }
+        hubHealthChecker.close();
+        commandClientFactories.forEach(CommandHttpClientFactory::close);
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.error("httpGet client close error", e);
+        }
+    }
+
     /**
      * Gets current hub.
      *
@@ -309,14 +1011,23 @@ public class GridFactory {
         return currentHub;
     }
 
+    /**
+     * Gets the hub of a WebDriver created by this factory, when the factory is shared by several threads
+     *
+     * @param pDriver (WebDriver)
+     * @return the hub url, null if the driver does not come from this factory
+     */
+    public String getHub(WebDriver pDriver) {
+        return hubByDriver.get(pDriver);
+    }
+
     /**
      * Simple http get
      *
      * @param pUrl (String)
-     * @return (String) response
+     * @return (String) response, empty string on error
      */
     private String httpGet(String pUrl) {
-        CloseableHttpClient httpclient = HttpClients.createDefault();
         try {
             HttpGet httpget = new HttpGet(pUrl);
 
@@ -337,19 +1048,12 @@ public class GridFactory {
                 }
 
             };
-            String responseBody = httpclient.execute(httpget, responseHandler);
+            String responseBody = httpClient.execute(httpget, responseHandler);
             logger.debug(responseBody);
             return responseBody;
         } catch (IOException e) {
-            logger.error("httpGet error", e);
+            logger.debug("httpGet error on " + pUrl + " : " + e.toString());
             return "";
-        } finally {
-            try {
-                httpclient.close();
-            } catch (IOException e) {
-
-                logger.error("httpGet error", e);
-            }
         }
     }
 
@@ -2,8 +2,19 @@ package com.zipongo.qa.selenium.commons;
 
 
 public class GridFactoryException extends Exception {
+    private final boolean saturated;
+
     public GridFactoryException(String pMessage) {
+        this(pMessage, false);
+    }
+
+    /**
+     * @param pMessage (String)
+     * @param pSaturated true if the failure only means that no slot is free for the moment, see isSaturation
+     */
+    public GridFactoryException(String pMessage, boolean pSaturated) {
         super(pMessage);
+        this.saturated = pSaturated;
     }
 
     // Messages:
@@ -11,6 +22,45 @@ public class GridFactoryException extends Exception {
     // ...
     public GridFactoryException(String pMessage, Throwable pThrow) {
         super(pMessage, pThrow);
+        this.saturated = false;
+    }
+
+    /**
+     * @return true if this failure was raised because no slot is free for the moment
+     */
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    // Messages of a grid that is up but has no free slot for the moment
+    private static final String[] SATURATION_MESSAGES = {
+            "Empty pool of VM",
+            "timed out waiting for a node to become available"
+    };
+
+    /**
+     * Tell if a session creation failure means the grid is saturated (no free slot) rather than broken.
+     * A saturated grid should be retried after a short backoff, a broken hub should be taken out of rotation.
+     * A GridFactoryException created as saturated is one, otherwise the messages of the grid are matched.
+     *
+     * @param pThrow the failure or one of its causes
+     * @return true if the grid is saturated
+     */
+    public static boolean isSaturation(Throwable pThrow) {
+        for (Throwable cause = pThrow; cause != null; cause = cause.getCause()) {
+            if (cause instanceof GridFactoryException && ((GridFactoryException) cause).isSaturated()) {
+                return true;
+            }
+            String message = cause.getMessage();
+            if (message != null) {
+                for (String saturationMessage : SATURATION_MESSAGES) {
+                    if (message.toLowerCase().contains(saturationMessage.toLowerCase())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
     }
 
     private static final long serialVersionUID = 1L;
@@ -0,0 +1,55 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.firefox.FirefoxOptions;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Browser arguments to run Chrome and Firefox without a display, with a fixed window size.
+ * Used for the local browsers by BrowserDriver and for the grid browsers by GridFactory.
+ */
+class HeadlessMode {
+
+    private HeadlessMode() {
+    }
+
+    /**
+     * Add the headless arguments to the Chrome options
+     *
+     * @param pOptions (ChromeOptions)
+     * @param pWindowSize (Dimension) size of the window, it cannot be maximized without a display
+     */
+    static void addTo(ChromeOptions pOptions, Dimension pWindowSize) {
+        // no GPU on the CI agents, chrome would try to use it anyway
+        pOptions.addArguments("--headless", "--disable-gpu",
+                "--window-size=" + pWindowSize.getWidth() + "," + pWindowSize.getHeight());
+    }
+
+    /**
+     * Add the headless arguments to the Firefox capabilities (moz:firefoxOptions, read by geckodriver),
+     * keeping the other Firefox options already set as a map (e.g. the profile)
+     *
+     * @param pCapabilities (DesiredCapabilities) firefox capabilities
+     * @param pWindowSize (Dimension) size of the window, it cannot be maximized without a display
+     */
+    @SuppressWarnings("unchecked")
+    static void addTo(DesiredCapabilities pCapabilities, Dimension pWindowSize) {
+        Map<String, Object> firefoxOptions = new HashMap<>();
+        Object current = pCapabilities.getCapability(FirefoxOptions.FIREFOX_OPTIONS);
+        if (current instanceof Map) {
+            firefoxOptions.putAll((Map<String, Object>) current);
+        }
+        firefoxOptions.put("args", firefoxArguments(pWindowSize));
+        pCapabilities.setCapability(FirefoxOptions.FIREFOX_OPTIONS, firefoxOptions);
+    }
+
+    private static List<String> firefoxArguments(Dimension pWindowSize) {
+        return Arrays.asList("-headless", "--width=" + pWindowSize.getWidth(), "--height=" + pWindowSize.getHeight());
+    }
+}
@@ -0,0 +1,71 @@
+package com.zipongo.qa.selenium.commons;
+
+/**
+ * Circuit breaker of one hub.
+ * CLOSED: the hub is used. After failureThreshold hard failures in a row it becomes OPEN.
+ * OPEN: the hub is out of rotation for openMillis, then it becomes HALF_OPEN.
+ * HALF_OPEN: one trial request is allowed. A success closes the breaker, a failure opens it again.
+ */
+class HubCircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean trialInFlight = false;
+    private long trialStartedAt = 0;
+
+    /**
+     * @param pFailureThreshold hard failures in a row before opening the breaker
+     * @param pOpenMillis time the hub stays out of rotation
+     */
+    HubCircuitBreaker(int pFailureThreshold, long pOpenMillis) {
+        this.failureThreshold = pFailureThreshold;
+        this.openMillis = pOpenMillis;
+    }
+
+    /**
+     * @return true if a session can be requested from the hub now
+     */
+    synchronized boolean allowRequest() {
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN && now - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        // a trial that never reported back (e.g. lost the race) does not block the hub forever
+        if (state == State.HALF_OPEN && (!trialInFlight || now - trialStartedAt >= openMillis)) {
+            trialInFlight = true;
+            trialStartedAt = now;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Record a hard failure of the hub (unreachable, broken).
+     * A saturated hub is not a failure of the hub and must not be recorded.
+     */
+    synchronized void recordFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trialInFlight = false;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,316 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.zipongo.qa.selenium.commons.util.NamedDaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Poll the status endpoint of each hub in background and cache whether it is up or down,
+ * and how many free slots it has by browser.
+ * A status older than the TTL is unknown, and an unknown hub is considered available.
+ */
+class HubHealthChecker implements Closeable {
+
+    /**
+     * Free slots of a hub, by browser when the hub tells it (grid 4 nodes and slots),
+     * for any browser otherwise (grid 3 slotCounts).
+     */
+    static class SlotInventory {
+        private final Map<String, AtomicInteger> freeByBrowser; // null when the hub only gives a total
+        private final AtomicInteger freeAnyBrowser;
+
+        private SlotInventory(Map<String, AtomicInteger> pFreeByBrowser, int pFreeAnyBrowser) {
+            this.freeByBrowser = pFreeByBrowser;
+            this.freeAnyBrowser = new AtomicInteger(pFreeAnyBrowser);
+        }
+
+        /**
+         * @param browserName (String)
+         * @return the free slots for this browser, 0 if the hub has no slot for it
+         */
+        int freeSlots(String browserName) {
+            if (freeByBrowser == null) {
+                return freeAnyBrowser.get();
+            }
+            AtomicInteger free = freeByBrowser.get(normalize(browserName));
+            return free == null ? 0 : free.get();
+        }
+
+        /**
+         * Count a slot as used until the next check, so parallel requests do not all go to the same hub.
+         *
+         * @param browserName (String)
+         */
+        void claim(String browserName) {
+            AtomicInteger free = freeByBrowser == null ? freeAnyBrowser : freeByBrowser.get(normalize(browserName));
+            if (free != null) {
+                free.updateAndGet(count -> Math.max(0, count - 1));
+            }
+        }
+
+        private static String normalize(String browserName) {
+            return browserName == null ? "" : browserName.toLowerCase();
+        }
+    }
+
+    /**
+     * Last known status of a hub
+     */
+    static class HubStatus {
+        private final boolean up;
+        private final long checkedAt;
+        private final JsonObject status; // the status json returned by the hub, null if down
+        private final SlotInventory slotInventory; // null if unknown
+
+        HubStatus(boolean up, long checkedAt, JsonObject status, SlotInventory slotInventory) {
+            this.up = up;
+            this.checkedAt = checkedAt;
+            this.status = status;
+            this.slotInventory = slotInventory;
+        }
+
+        public boolean isUp() {
+            return up;
+        }
+
+        public long getCheckedAt() {
+            return checkedAt;
+        }
+
+        public JsonObject getStatus() {
+            return status;
+        }
+
+        public SlotInventory getSlotInventory() {
+            return slotInventory;
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(HubHealthChecker.class);
+    private final List<URL> hubs;
+    private final Function<String, String> httpGet;
+    private final long ttlMillis;
+    private final Map<URL, HubStatus> statusByHub = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new NamedDaemonThreadFactory("hub-health"));
+
+    /**
+     * Start polling the hubs right away.
+     *
+     * @param pHubs hubs to check
+     * @param pHttpGet http get returning the response body, or an empty string on error
+     * @param pIntervalSeconds delay between two checks
+     * @param pTtlSeconds time after which a status is no longer trusted
+     */
+    HubHealthChecker(List<URL> pHubs, Function<String, String> pHttpGet, long pIntervalSeconds, long pTtlSeconds) {
+        this.hubs = pHubs;
+        this.httpGet = pHttpGet;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(pTtlSeconds);
+        scheduler.scheduleWithFixedDelay(this::checkAll, 0, pIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Return the hubs that are not known to be down, keeping their order.
+     *
+     * @param pHubs (List<URL>)
+     * @return (List<URL>)
+     */
+    List<URL> availableHubs(List<URL> pHubs) {
+        return pHubs.stream()
+                .filter(hub -> !isKnownDown(hub))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param hub (URL)
+     * @return true if the last fresh status of the hub is down
+     */
+    boolean isKnownDown(URL hub) {
+        HubStatus hubStatus = freshStatus(hub);
+        return hubStatus != null && !hubStatus.isUp();
+    }
+
+    /**
+     * @param hub (URL)
+     * @return the status of the hub if it is younger than the TTL, null otherwise
+     */
+    HubStatus freshStatus(URL hub) {
+        HubStatus hubStatus = statusByHub.get(hub);
+        if (hubStatus == null || System.currentTimeMillis() - hubStatus.getCheckedAt() > ttlMillis) {
+            return null;
+        }
+        return hubStatus;
+    }
+
+    /**
+     * @param hub (URL)
+     * @param browserName (String)
+     * @return the free slots of the hub for this browser, -1 if unknown
+     */
+    int freeSlots(URL hub, String browserName) {
+        HubStatus hubStatus = freshStatus(hub);
+        if (hubStatus == null || hubStatus.getSlotInventory() == null) {
+            return -1;
+        }
+        return hubStatus.getSlotInventory().freeSlots(browserName);
+    }
+
+    /**
+     * Count a slot of the hub as used until the next check
+     *
+     * @param hub (URL)
+     * @param browserName (String)
+     */
+    void claimSlot(URL hub, String browserName) {
+        HubStatus hubStatus = freshStatus(hub);
+        if (hubStatus != null && hubStatus.getSlotInventory() != null) {
+            hubStatus.getSlotInventory().claim(browserName);
+        }
+    }
+
+    /**
+     * Check every hub now, in the calling thread.
+     * A failure is logged and does not stop the check of the other hubs, nor the periodic checks.
+     */
+    void checkAll() {
+        for (URL hub : hubs) {
+            try {
+                check(hub);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to check hub " + hub + " : " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Read the status endpoint of the hub (e.g. http://localhost:4444/wd/hub/status).
+     * The hub is up if it answers with a success status. A hub without free slot is still up.
+     * The slots are read from the status (grid 4) or from /grid/api/hub (grid 3).
+     *
+     * @param hub (URL)
+     * @return the new status of the hub
+     */
+    HubStatus check(URL hub) {
+        String body = null;
+        try {
+            body = httpGet.apply(hub.toString() + "/status");
+        } catch (Exception e) {
+            logger.debug("Unable to read the status of hub " + hub + " : " + e.toString());
+        }
+        boolean up = body != null && !body.isEmpty();
+        JsonObject status = up ? parseStatus(body) : null;
+        SlotInventory slotInventory = null;
+        if (up) {
+            try {
+                slotInventory = parseSlotInventory(status);
+            } catch (RuntimeException e) {
+                // unexpected json (e.g. a node that is not an object): the capacity of the hub is unknown
+                logger.debug("Unable to read the slots of hub " + hub + " from its status : " + e.toString());
+            }
+            if (slotInventory == null) {
+                slotInventory = readGridApiSlotInventory(hub);
+            }
+        }
+
+        HubStatus hubStatus = new HubStatus(up, System.currentTimeMillis(), status, slotInventory);
+        HubStatus previous = statusByHub.put(hub, hubStatus);
+        if (previous == null || previous.isUp() != up) {
+            logger.info("Hub " + hub + " is " + (up ? "up" : "down"));
+        }
+        return hubStatus;
+    }
+
+    private static JsonObject parseStatus(String body) {
+        try {
+            JsonElement json = new JsonParser().parse(body);
+            return json.isJsonObject() ? json.getAsJsonObject() : new JsonObject();
+        } catch (JsonParseException e) {
+            return new JsonObject();
+        }
+    }
+
+    /**
+     * Read the slots of a grid 3 hub from http://host:port/grid/api/hub
+     *
+     * @param hub (URL)
+     * @return the slots, null if unknown
+     */
+    private SlotInventory readGridApiSlotInventory(URL hub) {
+        try {
+            String body = httpGet.apply(new URL(hub.getProtocol(), hub.getHost(), hub.getPort(), "/grid/api/hub").toString());
+            return body == null || body.isEmpty() ? null : parseSlotInventory(parseStatus(body));
+        } catch (Exception e) {
+            logger.debug("Unable to read the slots of hub " + hub + " : " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Read the free slots from a status json:
+     * grid 4 {"value": {"nodes": [{"availability": "UP", "slots": [{"session": null, "stereotype": {"browserName": "chrome"}}]}]}}
+     * or grid 3 {"slotCounts": {"free": 3, "total": 5}}
+     *
+     * @param status (JsonObject)
+     * @return the slots, null if the json has none
+     * @throws RuntimeException (IllegalStateException, UnsupportedOperationException...) if the json has another shape
+     */
+    static SlotInventory parseSlotInventory(JsonObject status) {
+        JsonObject value = status.has("value") && status.get("value").isJsonObject() ?
+                status.getAsJsonObject("value") : status;
+
+        if (value.has("nodes") && value.get("nodes").isJsonArray()) {
+            Map<String, AtomicInteger> freeByBrowser = new HashMap<>();
+            for (JsonElement node : value.getAsJsonArray("nodes")) {
+                JsonObject nodeObject = node.getAsJsonObject();
+                boolean nodeUp = !nodeObject.has("availability")
+                        || "UP".equalsIgnoreCase(nodeObject.get("availability").getAsString());
+                if (!nodeObject.has("slots")) {
+                    continue;
+                }
+                for (JsonElement slot : nodeObject.getAsJsonArray("slots")) {
+                    JsonObject slotObject = slot.getAsJsonObject();
+                    JsonObject stereotype = slotObject.has("stereotype") ?
+                            slotObject.getAsJsonObject("stereotype") : new JsonObject();
+                    String browserName = stereotype.has("browserName") ? stereotype.get("browserName").getAsString() : "";
+                    AtomicInteger free = freeByBrowser.computeIfAbsent(SlotInventory.normalize(browserName),
+                            name -> new AtomicInteger());
+                    JsonElement session = slotObject.get("session");
+                    if (nodeUp && (session == null || session.isJsonNull())) {
+                        free.incrementAndGet();
+                    }
+                }
+            }
+            return new SlotInventory(freeByBrowser, 0);
+        }
+
+        if (status.has("slotCounts") && status.get("slotCounts").isJsonObject()) {
+            JsonObject slotCounts = status.getAsJsonObject("slotCounts");
+            if (slotCounts.has("free")) {
+                return new SlotInventory(null, slotCounts.get("free").getAsInt());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,136 @@
+package com.zipongo.qa.selenium.commons;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Track the new session latency of each hub, by browser: an EWMA and the p95 of the last samples.
+ * Used to try the fastest hubs first and to derive each hub's timeout from what was measured.
+ */
+class HubLatencyTracker {
+
+    private static final double EWMA_WEIGHT = 0.2; // weight of a new sample
+    private static final int WINDOW_SIZE = 50; // samples kept for the p95
+    private static final int MIN_SAMPLES = 5; // samples needed before trusting the p95
+    private static final double TIMEOUT_FACTOR = 2.0; // timeout = p95 * TIMEOUT_FACTOR
+
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final Map<String, Stats> statsByKey = new ConcurrentHashMap<>();
+
+    /**
+     * Latency statistics of one hub for one browser
+     */
+    private static class Stats {
+        private final long[] window = new long[WINDOW_SIZE];
+        private int count = 0;
+        private double ewma = 0;
+
+        synchronized void record(long millis) {
+            ewma = count == 0 ? millis : EWMA_WEIGHT * millis + (1 - EWMA_WEIGHT) * ewma;
+            window[count % WINDOW_SIZE] = millis;
+            count++;
+        }
+
+        synchronized double getEwma() {
+            return ewma;
+        }
+
+        synchronized int getCount() {
+            return count;
+        }
+
+        synchronized long getP95() {
+            long[] samples = Arrays.copyOf(window, Math.min(count, WINDOW_SIZE));
+            if (samples.length == 0) {
+                return 0;
+            }
+            Arrays.sort(samples);
+            return samples[(int) Math.ceil(0.95 * samples.length) - 1];
+        }
+    }
+
+    /**
+     * @param pMinTimeoutMillis lowest timeout given to a hub
+     * @param pMaxTimeoutMillis timeout of a hub without enough samples, and highest timeout given to a hub
+     */
+    HubLatencyTracker(long pMinTimeoutMillis, long pMaxTimeoutMillis) {
+        this.minTimeoutMillis = pMinTimeoutMillis;
+        this.maxTimeoutMillis = pMaxTimeoutMillis;
+    }
+
+    /**
+     * Record the time a hub took to create a session
+     *
+     * @param hub (URL)
+     * @param browserName (String)
+     * @param millis new session latency
+     */
+    void record(URL hub, String browserName, long millis) {
+        statsByKey.computeIfAbsent(key(hub, browserName), k -> new Stats()).record(millis);
+    }
+
+    /**
+     * Sort the hubs from the fastest to the slowest EWMA.
+     * A hub never measured comes first so it gets measured.
+     *
+     * @param hubs (List<URL>)
+     * @param browserName (String)
+     * @return (List<URL>) a new sorted list
+     */
+    List<URL> fastestFirst(List<URL> hubs, String browserName) {
+        return hubs.stream()
+                .sorted(Comparator.comparingDouble(hub -> ewma(hub, browserName)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the EWMA of the new session latency in ms, 0 if never measured
+     */
+    double ewma(URL hub, String browserName) {
+        Stats stats = statsByKey.get(key(hub, browserName));
+        return stats == null ? 0 : stats.getEwma();
+    }
+
+    /**
+     * @return the p95 of the new session latency in ms, 0 if there are not enough samples
+     */
+    long p95(URL hub, String browserName) {
+        Stats stats = statsByKey.get(key(hub, browserName));
+        return stats == null || stats.getCount() < MIN_SAMPLES ? 0 : stats.getP95();
+    }
+
+    /**
+     * Timeout of a new session request on this hub, derived from its p95.
+     *
+     * @return timeout in ms, maxTimeoutMillis if there are not enough samples
+     */
+    long timeoutMillis(URL hub, String browserName) {
+        long p95 = p95(hub, browserName);
+        if (p95 == 0) {
+            return maxTimeoutMillis;
+        }
+        return Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, (long) (p95 * TIMEOUT_FACTOR)));
+    }
+
+    /**
+     * Describe the measured latencies
+     *
+     * @return (String) e.g. "{http://hub:4444/wd/hub|chrome=ewma 5210 ms, p95 7400 ms, 12 samples}"
+     */
+    String describe() {
+        return statsByKey.entrySet().stream()
+                .map(entry -> entry.getKey() + "=ewma " + Math.round(entry.getValue().getEwma()) + " ms, p95 "
+                        + entry.getValue().getP95() + " ms, " + entry.getValue().getCount() + " samples")
+                .collect(Collectors.joining(", ", "{", "}"));
+    }
+
+    private static String key(URL hub, String browserName) {
+        return hub + "|" + browserName;
+    }
+}
@@ -0,0 +1,87 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.firefox.GeckoDriverService;
+import org.openqa.selenium.remote.service.DriverService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The chromedriver and geckodriver processes of the local browsers, started once per JVM and driver executable.
+ * Every local session is created against the running process instead of forking a new one.
+ * They are stopped by stopAll, after the browsers are quit.
+ */
+class LocalDriverServices {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalDriverServices.class);
+    private static final Map<String, DriverService> services = new ConcurrentHashMap<>();
+
+    private LocalDriverServices() {
+    }
+
+    /**
+     * Return the url of the running chromedriver, starting it the first time
+     *
+     * @param pDriverPath (String) path of chromedriver, null to find it from webdriver.chrome.driver or the PATH
+     * @return (URL) url to create the sessions
+     * @throws IOException if chromedriver cannot be started
+     */
+    static URL chrome(String pDriverPath) throws IOException {
+        return getOrStart("chrome|" + pDriverPath, pDriverPath, new ChromeDriverService.Builder());
+    }
+
+    /**
+     * Return the url of the running geckodriver, starting it the first time
+     *
+     * @param pDriverPath (String) path of geckodriver, null to find it from webdriver.gecko.driver or the PATH
+     * @return (URL) url to create the sessions
+     * @throws IOException if geckodriver cannot be started
+     */
+    static URL gecko(String pDriverPath) throws IOException {
+        return getOrStart("gecko|" + pDriverPath, pDriverPath, new GeckoDriverService.Builder());
+    }
+
+    private static URL getOrStart(String pKey, String pDriverPath, DriverService.Builder<?, ?> pBuilder) throws IOException {
+        DriverService service = services.get(pKey);
+        if (service != null && service.isRunning()) {
+            return service.getUrl();
+        }
+        synchronized (services) {
+            service = services.get(pKey);
+            // started again if the process died
+            if (service == null || !service.isRunning()) {
+                if (pDriverPath != null) {
+                    pBuilder.usingDriverExecutable(new File(pDriverPath));
+                }
+                long start = System.currentTimeMillis();
+                service = pBuilder.usingAnyFreePort().build();
+                service.start();
+                services.put(pKey, service);
+                log.info("Started " + pKey + " on " + service.getUrl() + " in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+            return service.getUrl();
+        }
+    }
+
+    /**
+     * Stop every driver process. The browsers must be quit before.
+     */
+    static void stopAll() {
+        synchronized (services) {
+            services.forEach((key, service) -> {
+                try {
+                    service.stop();
+                } catch (Exception e) {
+                    log.warn("Unable to stop " + key + " : " + e.toString());
+                }
+            });
+            services.clear();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.zipongo.qa.selenium.commons.util.AtomicFiles;
+import org.openqa.selenium.By;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The locator that found the element last time, for each call site of BrowserDriver.findElement(By...),
+ * so it is tried first next time. The call site is the first caller outside BrowserDriver (class, method and line),
+ * the locator is kept as its toString. The preferences are kept in a properties file between runs.
+ */
+class LocatorPreferences {
+
+    private static final Logger log = LoggerFactory.getLogger(LocatorPreferences.class);
+    private static final Properties preferences = new Properties();
+    private static File file = new File("./target/locator-preferences.properties"); // null to keep them in memory only
+    private static boolean loaded = false;
+
+    private LocatorPreferences() {
+    }
+
+    /**
+     * Keep the preferences in this file between runs
+     *
+     * @param pFile (File) null to keep them in memory only
+     */
+    static synchronized void setFile(File pFile) {
+        file = pFile;
+        preferences.clear();
+        loaded = false;
+    }
+
+    /**
+     * Return the call site of the current BrowserDriver call, e.g. "com.acme.LoginPage.login:42"
+     *
+     * @return (String)
+     */
+    static String callSite() {
+        for (StackTraceElement frame : Thread.currentThread().getStackTrace()) {
+            String className = frame.getClassName();
+            if (!className.equals(Thread.class.getName()) && !className.equals(LocatorPreferences.class.getName())
+                    && !className.equals(BrowserDriver.class.getName())) {
+                return className + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    /**
+     * Return the locators with the one preferred at this call site first, the others in the given order
+     *
+     * @param pCallSite (String) see callSite
+     * @param pLocators (By[])
+     * @return (List) a new list
+     */
+    static synchronized List<By> order(String pCallSite, By... pLocators) {
+        load();
+        List<By> ordered = new ArrayList<>(Arrays.asList(pLocators));
+        String preferred = preferences.getProperty(pCallSite);
+        if (preferred != null) {
+            for (int i = 1; i < ordered.size(); i++) {
+                if (preferred.equals(ordered.get(i).toString())) {
+                    ordered.add(0, ordered.remove(i));
+                    break;
+                }
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Remember the locator that found the element at this call site, and write the file if it changed
+     *
+     * @param pCallSite (String) see callSite
+     * @param pLocator (By)
+     */
+    static synchronized void remember(String pCallSite, By pLocator) {
+        load();
+        String locator = pLocator.toString();
+        if (locator.equals(preferences.setProperty(pCallSite, locator))) {
+            return;
+        }
+        log.debug("Preferring " + locator + " at " + pCallSite);
+        if (file == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            preferences.store(out, "Preferred locator of BrowserDriver.findElement(By...) per call site");
+            AtomicFiles.write(file, out.toByteArray());
+        } catch (IOException e) {
+            log.warn("Unable to write the locator preferences " + file + " : " + e.toString());
+        }
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (file != null && file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                preferences.load(in);
+                log.info("Read " + preferences.size() + " locator preferences from " + file);
+            } catch (IOException e) {
+                log.warn("Unable to read the locator preferences " + file + " : " + e.toString());
+            }
+        }
+    }
+}
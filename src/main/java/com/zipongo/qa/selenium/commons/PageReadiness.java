@@ -0,0 +1,158 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.openqa.selenium.JavascriptException;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.ScriptTimeoutException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wait for the page to be ready with one asynchronous script: the script listens to the readystatechange
+ * and load events of the page and calls back as soon as the page is ready, so no time is lost sleeping between polls.
+ * Optionally the page is ready only when a spinner is hidden and when no fetch/XMLHttpRequest has been in flight
+ * for NETWORK_QUIET_MILLIS (the requests are counted from the first wait on the page).
+ */
+class PageReadiness {
+
+    static final String READY = "ready";
+    /** script timeout set on the drivers, longer than one wait of the script */
+    static final long SCRIPT_TIMEOUT_SECONDS = 30;
+    /** the network is idle after this time without request in flight */
+    static final long NETWORK_QUIET_MILLIS = 500;
+    private static final long MAX_SCRIPT_WAIT_MILLIS = 10000;
+    private static final long RETRY_DELAY_MILLIS = 100;
+    /** lower case parts of the messages of the drivers when a navigation interrupts the script */
+    private static final String[] NAVIGATION_MESSAGES = {"unload", "navigat", "execution context", "interrupted"};
+
+    private static final Logger log = LoggerFactory.getLogger(PageReadiness.class);
+
+    // arguments: timeout in ms, wait for the network (boolean), quiet time in ms, CSS selector of the spinner or null
+    private static final String READY_SCRIPT = ""
+            + "var callback = arguments[arguments.length - 1];"
+            + "var timeout = arguments[0], networkIdle = arguments[1], quietMillis = arguments[2], spinner = arguments[3];"
+            + "function instrument() {"
+            + "  if (window.__seleniumNetwork) { return window.__seleniumNetwork; }"
+            + "  var net = window.__seleniumNetwork = {pending: 0, last: new Date().getTime()};"
+            + "  var start = function () { net.pending++; net.last = new Date().getTime(); };"
+            + "  var end = function () { net.pending = Math.max(0, net.pending - 1); net.last = new Date().getTime(); };"
+            + "  if (window.XMLHttpRequest) {"
+            + "    var send = XMLHttpRequest.prototype.send;"
+            + "    XMLHttpRequest.prototype.send = function () {"
+            + "      var ended = false, once = function () { if (!ended) { ended = true; end(); } };"
+            + "      start();"
+            + "      this.addEventListener('loadend', once);"
+            + "      try { return send.apply(this, arguments); } catch (e) { once(); throw e; }"
+            + "    };"
+            + "  }"
+            + "  if (window.fetch) {"
+            + "    var fetch = window.fetch;"
+            + "    window.fetch = function () {"
+            + "      start();"
+            + "      return fetch.apply(this, arguments).then(function (r) { end(); return r; }, function (e) { end(); throw e; });"
+            + "    };"
+            + "  }"
+            + "  return net;"
+            + "}"
+            + "var net = networkIdle ? instrument() : null;"
+            + "var done = false, timer, poller;"
+            + DomWait.VISIBLE_FUNCTION
+            + "function spinnerVisible() {"
+            + "  var el = spinner ? document.querySelector(spinner) : null;"
+            + "  return !!el && visible(el);"
+            + "}"
+            + "function isReady() {"
+            + "  return document.readyState == 'complete' && !spinnerVisible()"
+            + "      && (!net || (net.pending == 0 && new Date().getTime() - net.last >= quietMillis));"
+            + "}"
+            + "function state() {"
+            + "  return 'readyState=' + document.readyState + (spinnerVisible() ? ', spinner visible' : '')"
+            + "      + (net ? ', ' + net.pending + ' requests in flight' : '');"
+            + "}"
+            + "function finish(result) {"
+            + "  if (done) { return; }"
+            + "  done = true;"
+            + "  clearTimeout(timer);"
+            + "  clearInterval(poller);"
+            + "  document.removeEventListener('readystatechange', check);"
+            + "  window.removeEventListener('load', check);"
+            + "  callback(result);"
+            + "}"
+            + "function check() { if (isReady()) { finish('" + READY + "'); } }"
+            + "document.addEventListener('readystatechange', check);"
+            + "window.addEventListener('load', check);"
+            // no event tells when a spinner is hidden or a request ends: checked in the page, without round trip
+            + "if (spinner || net) { poller = setInterval(check, 50); }"
+            + "timer = setTimeout(function () { finish(state()); }, timeout);"
+            + "check();";
+
+    private PageReadiness() {
+    }
+
+    /**
+     * Wait for the page to be ready
+     *
+     * @param pDriver (WebDriver) must be a JavascriptExecutor
+     * @param pTimeoutMillis longest wait
+     * @param pNetworkIdle true to also wait for no fetch/XMLHttpRequest in flight
+     * @param pSpinnerSelector (String) CSS selector of an element that must be hidden or missing, null for none
+     * @return (String) READY, or the state of the page at the timeout e.g. "readyState=interactive, spinner visible"
+     * @throws WebDriverException if the script fails for another reason than a navigation, see isCausedByNavigation
+     */
+    static String waitUntilReady(WebDriver pDriver, long pTimeoutMillis, boolean pNetworkIdle, String pSpinnerSelector) {
+        JavascriptExecutor js = (JavascriptExecutor) pDriver;
+        long deadline = System.currentTimeMillis() + pTimeoutMillis;
+        String state = "not checked";
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                // the script waits in chunks so it stays under the script timeout of the driver
+                state = String.valueOf(js.executeAsyncScript(READY_SCRIPT, Math.min(remaining, MAX_SCRIPT_WAIT_MILLIS),
+                        pNetworkIdle, NETWORK_QUIET_MILLIS, pSpinnerSelector));
+                if (READY.equals(state)) {
+                    return READY;
+                }
+            } catch (WebDriverException e) {
+                if (!isCausedByNavigation(e)) {
+                    throw e;
+                }
+                // the script is lost when the page navigates while waiting; try again on the new page
+                state = e.getClass().getSimpleName();
+                log.debug("Page readiness script failed, trying again: " + e.getMessage());
+                try {
+                    Thread.sleep(Math.min(RETRY_DELAY_MILLIS, Math.max(1, deadline - System.currentTimeMillis())));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return state;
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Tell if the script failed because the page navigated while it was waiting: the script was unloaded
+     * or interrupted, an element of the old page is stale, or the script timed out during the navigation
+     *
+     * @param pException (WebDriverException)
+     * @return (boolean) false for the other errors, e.g. no session, an unhandled alert or an unreachable browser
+     */
+    static boolean isCausedByNavigation(WebDriverException pException) {
+        if (pException instanceof StaleElementReferenceException || pException instanceof ScriptTimeoutException) {
+            return true;
+        }
+        if (!JavascriptException.class.equals(pException.getClass())
+                && !WebDriverException.class.equals(pException.getClass())) {
+            return false;
+        }
+        String message = String.valueOf(pException.getMessage()).toLowerCase();
+        for (String navigation : NAVIGATION_MESSAGES) {
+            if (message.contains(navigation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
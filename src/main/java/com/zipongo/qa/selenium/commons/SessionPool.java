@@ -0,0 +1,237 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.zipongo.qa.selenium.commons.util.NamedDaemonThreadFactory;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.SessionId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keep idle RemoteWebDriver sessions created ahead of time, by capability set.
+ * A session is leased, then released with its state reset, and the pool is refilled in background.
+ * Idle sessions get a cheap command periodically so the hub does not kill them on its idle timeout.
+ */
+class SessionPool implements Closeable {
+
+    /**
+     * Create a new session for the given capabilities
+     */
+    interface SessionFactory {
+        GridFactory.WebDriverHubURL create(DesiredCapabilities capabilities) throws GridFactoryException;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(SessionPool.class);
+    private final SessionFactory sessionFactory;
+    private final int idleSize;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, DesiredCapabilities> capabilitiesByKey = new ConcurrentHashMap<>();
+    private final Map<String, BlockingDeque<GridFactory.WebDriverHubURL>> idleByKey = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> pendingByKey = new ConcurrentHashMap<>();
+    private final Map<SessionId, Leased> leasedBySession = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * A leased session and the capability key it came from
+     */
+    private static class Leased {
+        private final String key;
+        private final GridFactory.WebDriverHubURL session;
+
+        Leased(String key, GridFactory.WebDriverHubURL session) {
+            this.key = key;
+            this.session = session;
+        }
+    }
+
+    /**
+     * @param pSessionFactory create the sessions
+     * @param pIdleSize number of idle sessions to keep by capability set
+     * @param pHeartbeatSeconds delay between two heartbeats of the idle sessions
+     */
+    SessionPool(SessionFactory pSessionFactory, int pIdleSize, long pHeartbeatSeconds) {
+        this.sessionFactory = pSessionFactory;
+        this.idleSize = pIdleSize;
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, pIdleSize),
+                new NamedDaemonThreadFactory("session-pool"));
+        scheduler.scheduleWithFixedDelay(this::heartbeat, pHeartbeatSeconds, pHeartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Lease a session. Take an idle one if there is one, create one otherwise.
+     * The pool is then refilled in background.
+     *
+     * @param capabilities (DesiredCapabilities)
+     * @return the leased session
+     * @throws GridFactoryException if no session can be created
+     */
+    GridFactory.WebDriverHubURL lease(DesiredCapabilities capabilities) throws GridFactoryException {
+        String key = keyOf(capabilities);
+        capabilitiesByKey.putIfAbsent(key, capabilities);
+
+        GridFactory.WebDriverHubURL session = idle(key).poll();
+        if (session == null) {
+            logger.info("No idle session for " + key + ", creating one.");
+            session = sessionFactory.create(capabilities);
+        } else {
+            logger.info("Leased idle session " + session.getWebDriver());
+        }
+        refill(key);
+
+        Leased leased = new Leased(key, session);
+        sessionId(session.getWebDriver()).ifPresent(id -> leasedBySession.put(id, leased));
+        return session;
+    }
+
+    /**
+     * Give back a leased session. Its state is reset and it returns to the idle sessions,
+     * or it is quit if the pool is already full or the reset failed.
+     *
+     * @param driver the leased WebDriver (or an augmented copy of it)
+     * @return false if the driver was not leased from this pool
+     */
+    boolean release(WebDriver driver) {
+        Leased leased = sessionId(driver).map(leasedBySession::remove).orElse(null);
+        if (leased == null) {
+            return false;
+        }
+        WebDriver pooledDriver = leased.session.getWebDriver();
+        if (!closed && resetSession(pooledDriver) && idle(leased.key).size() < idleSize) {
+            idle(leased.key).offer(leased.session);
+            logger.info("Session " + pooledDriver + " returned to the pool.");
+        } else {
+            quitQuietly(pooledDriver);
+            refill(leased.key);
+        }
+        return true;
+    }
+
+    /**
+     * Reset the state of a browser so it can be used by another scenario:
+     * close the extra windows, clear the storage and the cookies and go to about:blank.
+     *
+     * @param driver (WebDriver)
+     * @return false if the browser could not be reset
+     */
+    static boolean resetSession(WebDriver driver) {
+        try {
+            List<String> handles = new ArrayList<>(driver.getWindowHandles());
+            for (int i = 1; i < handles.size(); i++) {
+                driver.switchTo().window(handles.get(i)).close();
+            }
+            driver.switchTo().window(handles.get(0));
+            try {
+                ((JavascriptExecutor) driver).executeScript("window.localStorage.clear(); window.sessionStorage.clear();");
+            } catch (Exception e) {
+                // No storage on this page (ex: about:blank)
+            }
+            driver.manage().deleteAllCookies();
+            driver.get("about:blank");
+            return true;
+        } catch (Exception e) {
+            LoggerFactory.getLogger(SessionPool.class).warn("Unable to reset the session " + driver + " : " + e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Start creating sessions until the idle and pending sessions reach the pool size
+     */
+    private void refill(String key) {
+        AtomicInteger pending = pendingByKey.computeIfAbsent(key, k -> new AtomicInteger());
+        while (!closed && idle(key).size() + pending.get() < idleSize) {
+            pending.incrementAndGet();
+            scheduler.execute(() -> {
+                try {
+                    GridFactory.WebDriverHubURL session = sessionFactory.create(capabilitiesByKey.get(key));
+                    if (closed || !idle(key).offer(session)) {
+                        quitQuietly(session.getWebDriver());
+                    } else {
+                        logger.info("Added idle session " + session.getWebDriver() + " to the pool.");
+                    }
+                } catch (Exception e) {
+                    logger.error("Unable to refill the session pool: " + e.toString());
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Send a cheap command to each idle session. Drop and replace the dead ones.
+     */
+    private void heartbeat() {
+        idleByKey.forEach((key, sessions) -> {
+            for (int i = sessions.size(); i > 0; i--) {
+                GridFactory.WebDriverHubURL session = sessions.poll();
+                if (session == null) {
+                    break;
+                }
+                try {
+                    session.getWebDriver().getWindowHandle();
+                    sessions.offer(session);
+                } catch (Exception e) {
+                    logger.warn("Idle session " + session.getWebDriver() + " is dead, replacing it: " + e.toString());
+                    quitQuietly(session.getWebDriver());
+                }
+            }
+            refill(key);
+        });
+    }
+
+    private BlockingDeque<GridFactory.WebDriverHubURL> idle(String key) {
+        return idleByKey.computeIfAbsent(key, k -> new LinkedBlockingDeque<>(idleSize));
+    }
+
+    /**
+     * Quit every idle session and stop the background threads.
+     * Leased sessions are quit by their owner.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        idleByKey.values().forEach(sessions -> {
+            GridFactory.WebDriverHubURL session;
+            while ((session = sessions.poll()) != null) {
+                quitQuietly(session.getWebDriver());
+            }
+        });
+    }
+
+    private void quitQuietly(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (Exception e) {
+            logger.info("Unable to quit " + driver + " : " + e.toString());
+        }
+    }
+
+    private static Optional<SessionId> sessionId(WebDriver driver) {
+        return driver instanceof RemoteWebDriver ?
+                Optional.ofNullable(((RemoteWebDriver) driver).getSessionId()) :
+                Optional.empty();
+    }
+
+    private static String keyOf(DesiredCapabilities capabilities) {
+        return new TreeMap<>(capabilities.asMap()).toString();
+    }
+}
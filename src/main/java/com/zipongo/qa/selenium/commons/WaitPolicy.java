@@ -0,0 +1,127 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.Duration;
+import org.openqa.selenium.support.ui.Sleeper;
+import org.openqa.selenium.support.ui.SystemClock;
+import org.openqa.selenium.support.ui.WebDriverWait;
+
+/**
+ * Polling of the BrowserDriver waits: the first poll is fast, then the delay between polls grows
+ * by the backoff factor up to the max poll. A condition already true costs one command, a condition
+ * true soon is seen a few ms after, and a long wait does not send a command every 500 ms to the grid.
+ * A WaitPolicy is immutable and can be shared by every thread.
+ */
+public final class WaitPolicy {
+
+    /** 50 ms, then x2 up to 1 s */
+    public static final WaitPolicy DEFAULT = new WaitPolicy(50, 2.0, 1000);
+    /** the fixed 500 ms poll of WebDriverWait */
+    public static final WaitPolicy FIXED_500_MS = new WaitPolicy(500, 1.0, 500);
+
+    private final long initialPollMillis;
+    private final double backoffFactor;
+    private final long maxPollMillis;
+
+    /**
+     * @param pInitialPollMillis delay before the second poll
+     * @param pBackoffFactor the delay is multiplied by this factor after each poll, 1 for a fixed delay
+     * @param pMaxPollMillis longest delay between two polls
+     */
+    public WaitPolicy(long pInitialPollMillis, double pBackoffFactor, long pMaxPollMillis) {
+        if (pInitialPollMillis <= 0 || pBackoffFactor < 1.0 || pMaxPollMillis < pInitialPollMillis) {
+            throw new IllegalArgumentException("Invalid wait policy: initial poll " + pInitialPollMillis
+                    + " ms, backoff factor " + pBackoffFactor + ", max poll " + pMaxPollMillis + " ms");
+        }
+        this.initialPollMillis = pInitialPollMillis;
+        this.backoffFactor = pBackoffFactor;
+        this.maxPollMillis = pMaxPollMillis;
+    }
+
+    public long getInitialPollMillis() {
+        return initialPollMillis;
+    }
+
+    public double getBackoffFactor() {
+        return backoffFactor;
+    }
+
+    public long getMaxPollMillis() {
+        return maxPollMillis;
+    }
+
+    /**
+     * Return a copy with another initial poll (the max poll is raised to it if needed)
+     *
+     * @param pInitialPollMillis delay before the second poll
+     * @return (WaitPolicy)
+     */
+    public WaitPolicy withInitialPollMillis(long pInitialPollMillis) {
+        return new WaitPolicy(pInitialPollMillis, backoffFactor, Math.max(pInitialPollMillis, maxPollMillis));
+    }
+
+    /**
+     * Return a copy with another backoff factor
+     *
+     * @param pBackoffFactor the delay is multiplied by this factor after each poll, 1 for a fixed delay
+     * @return (WaitPolicy)
+     */
+    public WaitPolicy withBackoffFactor(double pBackoffFactor) {
+        return new WaitPolicy(initialPollMillis, pBackoffFactor, maxPollMillis);
+    }
+
+    /**
+     * Return a copy with another max poll (the initial poll is lowered to it if needed)
+     *
+     * @param pMaxPollMillis longest delay between two polls
+     * @return (WaitPolicy)
+     */
+    public WaitPolicy withMaxPollMillis(long pMaxPollMillis) {
+        return new WaitPolicy(Math.min(initialPollMillis, pMaxPollMillis), backoffFactor, pMaxPollMillis);
+    }
+
+    /**
+     * Return a new wait polling with this policy
+     *
+     * @param pDriver (WebDriver)
+     * @param pTimeoutInSeconds longest wait
+     * @return (WebDriverWait)
+     */
+    public WebDriverWait newWait(WebDriver pDriver, long pTimeoutInSeconds) {
+        // the sleeper ignores the interval given by the wait, it is only shown in the timeout message
+        return new WebDriverWait(pDriver, new SystemClock(), newSleeper(), pTimeoutInSeconds, maxPollMillis);
+    }
+
+    /**
+     * Return a new sleeper for one wait: each call sleeps longer than the previous one, up to the max poll
+     *
+     * @return (Sleeper)
+     */
+    public Sleeper newSleeper() {
+        return new BackoffSleeper();
+    }
+
+    @Override
+    public String toString() {
+        return "WaitPolicy[" + initialPollMillis + " ms x" + backoffFactor + " up to " + maxPollMillis + " ms]";
+    }
+
+    class BackoffSleeper implements Sleeper {
+
+        private long nextPollMillis = initialPollMillis;
+
+        @Override
+        public void sleep(Duration pInterval) throws InterruptedException {
+            Thread.sleep(nextPollMillis());
+        }
+
+        /**
+         * @return the delay of this poll, the next one is longer up to the max poll
+         */
+        long nextPollMillis() {
+            long pollMillis = nextPollMillis;
+            nextPollMillis = Math.min(maxPollMillis, (long) Math.ceil(pollMillis * backoffFactor));
+            return pollMillis;
+        }
+    }
+}
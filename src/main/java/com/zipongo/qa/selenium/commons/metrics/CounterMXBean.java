@@ -0,0 +1,9 @@
+package com.zipongo.qa.selenium.commons.metrics;
+
+/**
+ * JMX view of a Counter
+ */
+public interface CounterMXBean {
+
+    long getCount();
+}
@@ -0,0 +1,119 @@
+package com.zipongo.qa.selenium.commons.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in milliseconds.
+ * Values below 8 ms have their own bucket, above that each power of two is split in 4 buckets,
+ * so a percentile is at most 25% above the real value.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_EXPONENT = 40; // about 35 years in ms
+    private static final int BUCKET_COUNT = 8 + (MAX_EXPONENT - 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one latency
+     *
+     * @param millis latency in ms, a negative value is recorded as 0
+     */
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMean() {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    @Override
+    public long getP50() {
+        return percentile(0.50);
+    }
+
+    @Override
+    public long getP95() {
+        return percentile(0.95);
+    }
+
+    @Override
+    public long getP99() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param pQuantile between 0 and 1
+     * @return the upper bound of the bucket holding the quantile, 0 if nothing was recorded
+     */
+    public long percentile(double pQuantile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(pQuantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Describe the histogram on one line
+     *
+     * @return (String) e.g. "count=12 mean=5210 p50=4096 p95=7168 p99=7168 max=7011"
+     */
+    public String describe() {
+        return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" + getP50()
+                + " p95=" + getP95() + " p99=" + getP99() + " max=" + getMax();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < 8) {
+            return (int) value;
+        }
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+        int sub = (int) ((value >>> (exponent - 2)) & (SUB_BUCKETS - 1));
+        return Math.min(BUCKET_COUNT - 1, 8 + (exponent - 3) * SUB_BUCKETS + sub);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 8) {
+            return bucket;
+        }
+        int exponent = (bucket - 8) / SUB_BUCKETS + 3;
+        int sub = (bucket - 8) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1L) << (exponent - 2)) - 1;
+    }
+}
@@ -0,0 +1,19 @@
+package com.zipongo.qa.selenium.commons.metrics;
+
+/**
+ * JMX view of a LatencyHistogram. Latencies are in milliseconds.
+ */
+public interface LatencyHistogramMXBean {
+
+    long getCount();
+
+    double getMean();
+
+    long getP50();
+
+    long getP95();
+
+    long getP99();
+
+    long getMax();
+}
@@ -0,0 +1,46 @@
+package com.zipongo.qa.selenium.commons.metrics;
+
+import org.openqa.selenium.logging.LocalLogs;
+import org.openqa.selenium.logging.NeedsLocalLogs;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.Response;
+
+import java.io.IOException;
+
+/**
+ * CommandExecutor recording the round-trip latency of each WebDriver command
+ * in the histogram "command|name of the command" and the failures in the counter "command.errors".
+ */
+public class MetricsCommandExecutor implements CommandExecutor, NeedsLocalLogs {
+
+    private final CommandExecutor delegate;
+    private final SeleniumMetrics metrics = SeleniumMetrics.get();
+
+    /**
+     * @param pDelegate the executor sending the commands
+     */
+    public MetricsCommandExecutor(CommandExecutor pDelegate) {
+        this.delegate = pDelegate;
+    }
+
+    @Override
+    public Response execute(Command command) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.execute(command);
+        } catch (IOException | RuntimeException e) {
+            metrics.counter("command.errors").increment();
+            throw e;
+        } finally {
+            metrics.histogram("command|" + command.getName()).record((System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    @Override
+    public void setLocalLogs(LocalLogs logs) {
+        if (delegate instanceof NeedsLocalLogs) {
+            ((NeedsLocalLogs) delegate).setLocalLogs(logs);
+        }
+    }
+}
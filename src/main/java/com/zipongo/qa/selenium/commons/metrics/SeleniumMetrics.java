@@ -0,0 +1,135 @@
+package com.zipongo.qa.selenium.commons.metrics;
+
+import com.zipongo.qa.selenium.commons.util.AtomicFiles;
+import com.zipongo.qa.selenium.commons.util.NamedDaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms and counters of the JVM, e.g. the session acquisition latency by hub and browser,
+ * the retries and timeouts of GridFactory, and the round-trip latency of each WebDriver command.
+ * Each metric is registered in JMX under com.zipongo.qa.selenium:type=Latency|Counter,name=...
+ * and can be written periodically to a plain text file.
+ */
+public class SeleniumMetrics {
+
+    private static final String JMX_DOMAIN = "com.zipongo.qa.selenium";
+    private static final SeleniumMetrics INSTANCE = new SeleniumMetrics();
+
+    private final Logger logger = LoggerFactory.getLogger(SeleniumMetrics.class);
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private ScheduledExecutorService snapshotScheduler;
+    private ScheduledFuture<?> snapshotTask;
+
+    private SeleniumMetrics() {
+    }
+
+    /**
+     * @return the metrics of the JVM
+     */
+    public static SeleniumMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the histogram with this name, creating and registering it the first time
+     *
+     * @param pName (String) e.g. "session.acquire|http://hub:4444/wd/hub|chrome"
+     * @return (LatencyHistogram)
+     */
+    public LatencyHistogram histogram(String pName) {
+        return histograms.computeIfAbsent(pName, name -> register("Latency", name, new LatencyHistogram()));
+    }
+
+    /**
+     * Return the counter with this name, creating and registering it the first time
+     *
+     * @param pName (String) e.g. "session.retries"
+     * @return (Counter)
+     */
+    public Counter counter(String pName) {
+        return counters.computeIfAbsent(pName, name -> register("Counter", name, new Counter()));
+    }
+
+    private <T> T register(String pType, String pName, T pMetric) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + pType + ",name=" + ObjectName.quote(pName));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(pMetric, objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to register metric " + pName + " in JMX: " + e.toString());
+        }
+        return pMetric;
+    }
+
+    /**
+     * Describe every metric, one by line, sorted by name
+     *
+     * @return (String) e.g. "counter session.retries count=3"
+     */
+    public String snapshot() {
+        StringBuilder builder = new StringBuilder();
+        new TreeMap<>(counters).forEach((name, counter) ->
+                builder.append("counter ").append(name).append(" count=").append(counter.getCount()).append('\n'));
+        new TreeMap<>(histograms).forEach((name, histogram) ->
+                builder.append("latency ").append(name).append(' ').append(histogram.describe()).append('\n'));
+        return builder.toString();
+    }
+
+    /**
+     * Write the snapshot to pFile every pPeriodSeconds. The file is replaced at once so a reader never sees half of it.
+     * Calling it again replaces the previous file and period.
+     *
+     * @param pFile (File)
+     * @param pPeriodSeconds delay between two snapshots
+     */
+    public synchronized void startSnapshots(File pFile, long pPeriodSeconds) {
+        stopSnapshots();
+        if (snapshotScheduler == null) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new NamedDaemonThreadFactory("metrics-snapshot"));
+        }
+        logger.info("Writing the metrics to " + pFile + " every " + pPeriodSeconds + " seconds.");
+        snapshotTask = snapshotScheduler.scheduleWithFixedDelay(() -> writeSnapshot(pFile),
+                pPeriodSeconds, pPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop writing the snapshot file
+     */
+    public synchronized void stopSnapshots() {
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+            snapshotTask = null;
+        }
+    }
+
+    /**
+     * Write the snapshot to a file now
+     *
+     * @param pFile (File)
+     */
+    public void writeSnapshot(File pFile) {
+        try {
+            AtomicFiles.write(pFile, snapshot().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Unable to write the metrics to " + pFile + " : " + e.toString());
+        }
+    }
+}
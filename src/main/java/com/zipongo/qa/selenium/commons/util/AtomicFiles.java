@@ -0,0 +1,44 @@
+package com.zipongo.qa.selenium.commons.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replace a file at once, so a reader sees the old or the new content but never half of it:
+ * the content is written to a temp file of the same directory, then moved over the file.
+ */
+public final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Replace the file with the content. The temp file is deleted if the write or the move fails.
+     * On a file system without atomic move the file is replaced by a plain move.
+     *
+     * @param pFile (File) created with its directory if needed
+     * @param pContent (byte[])
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File pFile, byte[] pContent) throws IOException {
+        File dir = pFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        File temp = File.createTempFile("." + pFile.getName() + "-", ".tmp", dir);
+        try {
+            Files.write(temp.toPath(), pContent);
+            try {
+                Files.move(temp.toPath(), pFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), pFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } finally {
+            if (temp != null && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.zipongo.qa.selenium.commons.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadFactory creating daemon threads named prefix-1, prefix-2, ...
+ * so background work never keeps the JVM alive and is easy to spot in a thread dump.
+ */
+public class NamedDaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * @param pPrefix prefix of the thread names
+     */
+    public NamedDaemonThreadFactory(String pPrefix) {
+        this.prefix = pPrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,108 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AdmissionControl: no limit at 0, permits given in FIFO order, refusal after the timeout.
+ */
+public class AdmissionControlTest {
+
+    private static final long WAIT_MILLIS = 5000;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void noLimitAtZero() throws Exception {
+        AdmissionControl admission = new AdmissionControl(0, 0);
+        URL hub = new URL("http://hub:4444/wd/hub");
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(admission.acquire(0));
+            assertTrue(admission.acquire(hub, 0));
+        }
+        assertEquals("global: no limit", admission.describe());
+    }
+
+    @Test
+    public void refusesAfterTheTimeout() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 0);
+        assertTrue(admission.acquire(0));
+
+        long start = System.currentTimeMillis();
+        assertFalse(admission.acquire(200));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+
+        admission.release();
+        assertTrue(admission.acquire(0));
+    }
+
+    @Test
+    public void hubPermitsAreCountedByHub() throws Exception {
+        AdmissionControl admission = new AdmissionControl(0, 1);
+        URL hub = new URL("http://hub-a:4444/wd/hub");
+        URL otherHub = new URL("http://hub-b:4444/wd/hub");
+
+        assertTrue(admission.acquire(hub, 0));
+        assertTrue(admission.acquire(otherHub, 0));
+        assertFalse(admission.acquire(hub, 100));
+
+        admission.release(hub);
+        assertTrue(admission.acquire(hub, 0));
+    }
+
+    @Test
+    public void givesThePermitsInArrivalOrder() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 0);
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        assertTrue(admission.acquire(0));
+
+        Future<?> first = executor.submit(() -> admitAndRelease(admission, "first", admitted));
+        waitForWaiting(admission, 1);
+        Future<?> second = executor.submit(() -> admitAndRelease(admission, "second", admitted));
+        waitForWaiting(admission, 2);
+        Future<?> third = executor.submit(() -> admitAndRelease(admission, "third", admitted));
+        waitForWaiting(admission, 3);
+        admission.release();
+
+        first.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        second.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        third.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("first", "second", "third"), admitted);
+        assertEquals("global: 0 / 1 in flight, 0 waiting", admission.describe());
+    }
+
+    private static Void admitAndRelease(AdmissionControl pAdmission, String pName, List<String> pAdmitted)
+            throws InterruptedException {
+        assertTrue(pAdmission.acquire(WAIT_MILLIS));
+        pAdmitted.add(pName);
+        pAdmission.release();
+        return null;
+    }
+
+    private static void waitForWaiting(AdmissionControl pAdmission, int pWaiting) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!pAdmission.describe().endsWith(pWaiting + " waiting")) {
+            assertTrue(pAdmission.describe(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
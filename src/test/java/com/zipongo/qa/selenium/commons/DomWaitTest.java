@@ -0,0 +1,144 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ByIdOrName;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * DomWait against a FakeScriptDriver: the wait script runs in chunks under the script timeout,
+ * runs again after a navigation, and falls back to polling (null) when it cannot run in the browser.
+ */
+public class DomWaitTest {
+
+    private static final long MAX_SCRIPT_WAIT_MILLIS = 10000;
+
+    private final FakeScriptDriver fake = new FakeScriptDriver();
+
+    @Test
+    public void waitsInChunksUnderTheScriptTimeout() {
+        fake.answer(Boolean.FALSE, Boolean.FALSE, Boolean.TRUE);
+
+        assertEquals(Boolean.TRUE, DomWait.until(fake.getDriver(), By.id("save"), DomWait.Condition.VISIBLE, 25000));
+
+        assertEquals(3, fake.getCalls().size());
+        assertEquals(MAX_SCRIPT_WAIT_MILLIS, (long) fake.getChunkTimeouts().get(0));
+        fake.getChunkTimeouts().forEach(timeout -> assertTrue(String.valueOf(timeout), timeout <= MAX_SCRIPT_WAIT_MILLIS));
+        assertArrayEquals(new Object[] {"id", "save", null, "VISIBLE", null, null},
+                Arrays.copyOf(fake.getCalls().get(0), 6));
+    }
+
+    @Test
+    public void lastChunkEndsAtTheTimeout() {
+        long start = System.currentTimeMillis();
+
+        assertEquals(Boolean.FALSE, DomWait.until(fake.getDriver(), By.id("save"), DomWait.Condition.VISIBLE, 300));
+
+        assertTrue(System.currentTimeMillis() - start >= 300);
+        fake.getChunkTimeouts().forEach(timeout -> assertTrue(String.valueOf(timeout), timeout <= 300));
+    }
+
+    @Test
+    public void passesTheConditionArguments() {
+        fake.answer(Boolean.TRUE);
+
+        DomWait.until(fake.getDriver(), By.cssSelector("a.tab"), DomWait.Condition.ATTRIBUTE_VALUE_PRESENT, 1000,
+                "class", "active");
+
+        assertArrayEquals(new Object[] {"cssSelector", "a.tab", null, "ATTRIBUTE_VALUE_PRESENT", "class", "active"},
+                Arrays.copyOf(fake.getCalls().get(0), 6));
+    }
+
+    @Test
+    public void runsAgainAfterANavigation() {
+        fake.answer(new WebDriverException("document unloaded while waiting for result"), Boolean.TRUE);
+
+        assertEquals(Boolean.TRUE, DomWait.until(fake.getDriver(), By.id("save"), DomWait.Condition.PRESENT, 5000));
+        assertEquals(2, fake.getCalls().size());
+    }
+
+    @Test
+    public void fallsBackAfterRepeatedScriptErrors() {
+        fake.answer(new WebDriverException("1"), new WebDriverException("2"), new WebDriverException("3"), Boolean.TRUE);
+
+        assertNull(DomWait.until(fake.getDriver(), By.id("save"), DomWait.Condition.PRESENT, 5000));
+        assertEquals(3, fake.getCalls().size());
+    }
+
+    @Test
+    public void fallsBackOnAStaleElement() {
+        WebElement element = element();
+        fake.answer(new StaleElementReferenceException("stale"), Boolean.TRUE);
+
+        assertNull(DomWait.until(fake.getDriver(), element, DomWait.Condition.VISIBLE, 5000));
+        assertEquals(1, fake.getCalls().size());
+        assertSame(element, fake.getCalls().get(0)[2]);
+    }
+
+    @Test
+    public void fallsBackWhenTheLocatorIsNotSupportedInTheBrowser() {
+        assertNull(DomWait.until(fake.getDriver(), new ByIdOrName("save"), DomWait.Condition.VISIBLE, 5000));
+        assertNull(DomWait.untilAll(fake.getDriver(), new ByIdOrName("save"), DomWait.ElementsState.VISIBLE, 5000));
+        assertNull(DomWait.untilFirst(fake.getDriver(), Arrays.asList(By.id("save"), new ByIdOrName("save")), 5000));
+        assertEquals(0, fake.getCalls().size());
+    }
+
+    @Test
+    public void untilAllReturnsTheElements() {
+        List<WebElement> elements = Arrays.asList(element(), element());
+        fake.answer(elements, Boolean.TRUE);
+
+        assertEquals(elements, DomWait.untilAll(fake.getDriver(), By.className("row"), DomWait.ElementsState.CLICKABLE, 1000));
+        assertEquals(Collections.emptyList(),
+                DomWait.untilAll(fake.getDriver(), By.className("row"), DomWait.ElementsState.NOT_VISIBLE, 1000));
+        assertArrayEquals(new Object[] {"className", "row", "CLICKABLE"}, Arrays.copyOf(fake.getCalls().get(0), 3));
+    }
+
+    @Test
+    public void untilAllThrowsAtTheTimeout() {
+        try {
+            DomWait.untilAll(fake.getDriver(), By.className("row"), DomWait.ElementsState.VISIBLE, 200);
+            fail("Expected a TimeoutException");
+        } catch (TimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("By.className: row"));
+        }
+    }
+
+    @Test
+    public void untilFirstReturnsTheIndexOfTheLocatorAndTheElement() {
+        WebElement element = element();
+        fake.answer(Arrays.asList(1L, element));
+
+        Object[] first = DomWait.untilFirst(fake.getDriver(), Arrays.asList(By.id("save"), By.name("save")), 1000);
+
+        assertArrayEquals(new Object[] {1, element}, first);
+        assertEquals(Arrays.asList(Arrays.asList("id", "save"), Arrays.asList("name", "save")), fake.getCalls().get(0)[0]);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void untilFirstThrowsAtTheTimeout() {
+        DomWait.untilFirst(fake.getDriver(), Arrays.asList(By.id("save"), By.name("save")), 200);
+    }
+
+    private static WebElement element() {
+        return (WebElement) Proxy.newProxyInstance(DomWaitTest.class.getClassLoader(), new Class<?>[] {WebElement.class},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,125 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.WrapsElement;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * The element proxies of ElementCache: reused per locator, found again once when stale.
+ */
+public class ElementCacheTest {
+
+    private static final By LOCATOR = By.id("save");
+    private static final RuntimeException STALE = new StaleElementReferenceException("stale");
+
+    private final ElementCache cache = new ElementCache();
+
+    @Test
+    public void reusesTheElementOfALocator() {
+        WebElement first = element("Save");
+        FakeDriver driver = new FakeDriver(first);
+
+        WebElement element = cache.find(driver.proxy, LOCATOR);
+
+        assertSame(element, cache.find(driver.proxy, LOCATOR));
+        assertSame(first, ((WrapsElement) element).getWrappedElement());
+        assertEquals(1, driver.finds);
+    }
+
+    @Test
+    public void findsAStaleElementAgainOnce() {
+        WebElement second = element("Save");
+        FakeDriver driver = new FakeDriver(element(STALE), second);
+
+        WebElement element = cache.find(driver.proxy, LOCATOR);
+
+        assertEquals("Save", element.getText());
+        assertSame(second, ((WrapsElement) element).getWrappedElement());
+        assertEquals(2, driver.finds);
+    }
+
+    @Test
+    public void rethrowsWhenTheElementFoundAgainIsStale() {
+        RuntimeException staleAgain = new StaleElementReferenceException("stale again");
+        FakeDriver driver = new FakeDriver(element(STALE), element(staleAgain), element("Save"));
+
+        WebElement element = cache.find(driver.proxy, LOCATOR);
+        try {
+            element.getText();
+            fail("Expected a StaleElementReferenceException");
+        } catch (StaleElementReferenceException e) {
+            assertSame(staleAgain, e);
+        }
+        assertEquals(2, driver.finds);
+    }
+
+    @Test
+    public void findsTheElementAgainAfterClear() {
+        WebElement second = element("Save");
+        FakeDriver driver = new FakeDriver(element("Save"), second);
+
+        cache.find(driver.proxy, LOCATOR);
+        cache.clear();
+
+        assertSame(second, ((WrapsElement) cache.find(driver.proxy, LOCATOR)).getWrappedElement());
+        assertEquals(2, driver.finds);
+    }
+
+    @Test
+    public void forgetsTheElementsOfAnotherDriver() {
+        WebElement other = element("Save");
+
+        cache.find(new FakeDriver(element("Save")).proxy, LOCATOR);
+
+        assertSame(other, ((WrapsElement) cache.find(new FakeDriver(other).proxy, LOCATOR)).getWrappedElement());
+    }
+
+    /**
+     * @param pText (Object) text of the element, or the RuntimeException thrown by getText
+     */
+    private static WebElement element(Object pText) {
+        return (WebElement) Proxy.newProxyInstance(ElementCacheTest.class.getClassLoader(),
+                new Class<?>[] {WebElement.class}, (proxy, method, args) -> {
+                    if ("getText".equals(method.getName())) {
+                        if (pText instanceof RuntimeException) {
+                            throw (RuntimeException) pText;
+                        }
+                        return pText;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * WebDriver finding the given elements in turn
+     */
+    private static class FakeDriver {
+        private final Deque<WebElement> elements;
+        private final WebDriver proxy;
+        private int finds;
+
+        FakeDriver(WebElement... pElements) {
+            elements = new ArrayDeque<>(Arrays.asList(pElements));
+            proxy = (WebDriver) Proxy.newProxyInstance(ElementCacheTest.class.getClassLoader(),
+                    new Class<?>[] {WebDriver.class}, (p, method, args) -> {
+                        if ("findElement".equals(method.getName())) {
+                            finds++;
+                            return elements.remove();
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
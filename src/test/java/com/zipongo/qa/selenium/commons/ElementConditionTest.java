@@ -0,0 +1,151 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ByIdOrName;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.zipongo.qa.selenium.commons.ElementCondition.allOf;
+import static com.zipongo.qa.selenium.commons.ElementCondition.anyOf;
+import static com.zipongo.qa.selenium.commons.ElementCondition.attributeValuePresent;
+import static com.zipongo.qa.selenium.commons.ElementCondition.notPresent;
+import static com.zipongo.qa.selenium.commons.ElementCondition.notVisible;
+import static com.zipongo.qa.selenium.commons.ElementCondition.textPresent;
+import static com.zipongo.qa.selenium.commons.ElementCondition.visible;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ElementCondition: the argument of the in-browser wait, one wait for allOf and anyOf,
+ * and the polling fallback when a locator is not supported in the browser.
+ */
+public class ElementConditionTest {
+
+    private static final By SAVE = By.id("save");
+    private static final By STATUS = By.cssSelector(".status");
+    private static final By SPINNER = By.xpath("//div[@class='spinner']");
+
+    private final FakeScriptDriver fake = new FakeScriptDriver();
+
+    @Test
+    public void composedConditionIsOneScriptArgument() {
+        ElementCondition condition = allOf(visible(SAVE), anyOf(textPresent(STATUS, "Saved"), notPresent(SPINNER)));
+
+        Map<String, Object> argument = condition.toScriptArgument();
+
+        assertEquals(true, argument.get("all"));
+        List<?> of = (List<?>) argument.get("of");
+        assertEquals(leaf("id", "save", "VISIBLE", null, null, "visible(By.id: save)"), of.get(0));
+        Map<?, ?> any = (Map<?, ?>) of.get(1);
+        assertEquals(false, any.get("all"));
+        assertEquals(Arrays.asList(
+                leaf("cssSelector", ".status", "TEXT_PRESENT", "Saved", null, "textPresent(By.cssSelector: .status, Saved)"),
+                leaf("xpath", "//div[@class='spinner']", "NOT_PRESENT", null, null,
+                        "notPresent(By.xpath: //div[@class='spinner'])")),
+                any.get("of"));
+    }
+
+    @Test
+    public void waitsForTheWholeConditionInOneScript() {
+        ElementCondition condition = allOf(visible(SAVE), attributeValuePresent(STATUS, "class", "done"));
+        fake.answer(Boolean.FALSE, Boolean.TRUE);
+
+        assertEquals(Boolean.TRUE, DomWait.until(fake.getDriver(), condition, 5000));
+
+        assertEquals(2, fake.getCalls().size());
+        assertEquals(condition.toScriptArgument(), fake.getCalls().get(0)[0]);
+        assertEquals(0, fake.getFindCalls());
+    }
+
+    @Test
+    public void conditionWithALocatorNotSupportedInTheBrowserFallsBack() {
+        ElementCondition condition = anyOf(visible(SAVE), visible(new ByIdOrName("save")));
+
+        assertNull(condition.toScriptArgument());
+        assertNull(DomWait.until(fake.getDriver(), condition, 5000));
+        assertEquals(0, fake.getCalls().size());
+    }
+
+    @Test
+    public void scriptErrorsFallBack() {
+        fake.answer(new WebDriverException("1"), new WebDriverException("2"), new WebDriverException("3"));
+
+        assertNull(DomWait.until(fake.getDriver(), visible(SAVE), 5000));
+    }
+
+    @Test
+    public void pollingChecksAllOfAndAnyOf() {
+        fake.withElements(SAVE, element(true, "Save", null))
+                .withElements(STATUS, element(true, "Saved", "status done"));
+
+        assertTrue(allOf(visible(SAVE), textPresent(STATUS, "Saved"), notPresent(SPINNER)).holds(fake.getDriver()));
+        assertFalse(allOf(visible(SAVE), visible(SPINNER)).holds(fake.getDriver()));
+        assertTrue(anyOf(visible(SPINNER), attributeValuePresent(STATUS, "class", "done")).holds(fake.getDriver()));
+        assertFalse(anyOf(notVisible(SAVE), textPresent(STATUS, "Failed")).holds(fake.getDriver()));
+    }
+
+    @Test
+    public void notConditionsHoldOnAMissingElement() {
+        assertTrue(notVisible(SPINNER).holds(fake.getDriver()));
+        assertTrue(ElementCondition.attributeNotPresent(SPINNER, "class").holds(fake.getDriver()));
+        assertTrue(ElementCondition.attributeValueNotPresent(SPINNER, "class", "x").holds(fake.getDriver()));
+        assertFalse(ElementCondition.attributePresent(SPINNER, "class").holds(fake.getDriver()));
+    }
+
+    @Test
+    public void describesTheCondition() {
+        assertEquals("allOf(visible(By.id: save), anyOf(textPresent(By.cssSelector: .status, Saved), "
+                        + "attributeValuePresent(By.id: save, class, active)))",
+                allOf(visible(SAVE), anyOf(textPresent(STATUS, "Saved"), attributeValuePresent(SAVE, "class", "active")))
+                        .toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void allOfNeedsACondition() {
+        allOf();
+    }
+
+    @Test
+    public void describesTheWholeConditionWhenItCannotBeCheckedInTheBrowser() {
+        ElementCondition condition = allOf(visible(SAVE), visible(new ByIdOrName("save")));
+
+        assertEquals(condition.toString(), DomWait.describeNotHolding(fake.getDriver(), condition));
+    }
+
+    private static Map<String, Object> leaf(String pType, String pValue, String pCondition, String pA1, String pA2,
+                                            String pDescription) {
+        Map<String, Object> leaf = new HashMap<>();
+        leaf.put("type", pType);
+        leaf.put("value", pValue);
+        leaf.put("condition", pCondition);
+        leaf.put("a1", pA1);
+        leaf.put("a2", pA2);
+        leaf.put("description", pDescription);
+        return leaf;
+    }
+
+    private static WebElement element(boolean pDisplayed, String pText, String pClass) {
+        return (WebElement) Proxy.newProxyInstance(ElementConditionTest.class.getClassLoader(),
+                new Class<?>[] {WebElement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isDisplayed":
+                            return pDisplayed;
+                        case "getText":
+                            return pText;
+                        case "getAttribute":
+                            return "class".equals(args[0]) ? pClass : null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
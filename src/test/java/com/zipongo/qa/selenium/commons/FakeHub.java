@@ -0,0 +1,298 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.zipongo.qa.selenium.commons.util.NamedDaemonThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for a Selenium hub, to load-test GridFactory without a grid.
+ * It answers the new session (POST /wd/hub/session), delete session and status endpoints
+ * of the JSON wire protocol, and any other session command with a null value.
+ * The status lists one node with a slot per session, so capacity routing can be exercised;
+ * it can be replaced by any body, and a grid 3 /grid/api/hub body can be served too.
+ * The latency, the error rate and the number of slots are configurable; a new session request
+ * without free slot is answered with the "Empty pool of VM" error of a saturated grid 3 hub.
+ */
+public class FakeHub implements Closeable {
+
+    private final HttpServer server;
+    private final String browserName;
+    private final Map<String, Long> sessions = new ConcurrentHashMap<>(); // session id -> creation time
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private volatile int slots = 10;
+    private volatile long minLatencyMillis = 0;
+    private volatile long maxLatencyMillis = 0;
+    private volatile double errorRate = 0;
+    private volatile String statusBody; // null for the grid 4 like status of the slots
+    private volatile String gridApiHubBody; // null to answer /grid/api/hub with 404
+
+    /**
+     * Start a hub on a free local port
+     *
+     * @param pBrowserName browser of every slot, e.g. "chrome"
+     * @throws IOException if the server cannot start
+     */
+    public FakeHub(String pBrowserName) throws IOException {
+        this.browserName = pBrowserName;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/wd/hub", this::handle);
+        server.createContext("/grid/api/hub", this::handleGridApiHub);
+        server.setExecutor(Executors.newCachedThreadPool(new NamedDaemonThreadFactory("fake-hub")));
+        server.start();
+    }
+
+    /**
+     * @return the hub url to give to GridFactory, e.g. http://localhost:54321/wd/hub
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/wd/hub";
+    }
+
+    /**
+     * @param pSlots number of sessions the hub accepts at once
+     * @return this hub
+     */
+    public FakeHub setSlots(int pSlots) {
+        this.slots = pSlots;
+        return this;
+    }
+
+    /**
+     * Latency of a new session request, picked at random between the bounds
+     *
+     * @param pMinLatencyMillis (long)
+     * @param pMaxLatencyMillis (long)
+     * @return this hub
+     */
+    public FakeHub setLatency(long pMinLatencyMillis, long pMaxLatencyMillis) {
+        this.minLatencyMillis = pMinLatencyMillis;
+        this.maxLatencyMillis = Math.max(pMinLatencyMillis, pMaxLatencyMillis);
+        return this;
+    }
+
+    /**
+     * @param pErrorRate share of the new session requests failing with an error, between 0 and 1
+     * @return this hub
+     */
+    public FakeHub setErrorRate(double pErrorRate) {
+        this.errorRate = pErrorRate;
+        return this;
+    }
+
+    /**
+     * @param pStatusBody body of the status, sent as is (it may be malformed), null for the status of the slots
+     * @return this hub
+     */
+    public FakeHub setStatusBody(String pStatusBody) {
+        this.statusBody = pStatusBody;
+        return this;
+    }
+
+    /**
+     * @param pGridApiHubBody body of /grid/api/hub like a grid 3 hub, e.g. {"slotCounts": {"free": 2, "total": 5}}
+     * @return this hub
+     */
+    public FakeHub setGridApiHubBody(String pGridApiHubBody) {
+        this.gridApiHubBody = pGridApiHubBody;
+        return this;
+    }
+
+    public int getCreated() {
+        return created.get();
+    }
+
+    public int getRefused() {
+        return refused.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getOpenSessions() {
+        return sessions.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring("/wd/hub".length());
+            String method = exchange.getRequestMethod();
+            if (path.equals("/status")) {
+                String body = statusBody;
+                send(exchange, 200, body != null ? body : status().toString());
+            } else if (path.equals("/session") && method.equals("POST")) {
+                newSession(exchange);
+            } else if (path.matches("/session/[^/]+") && method.equals("DELETE")) {
+                String sessionId = path.substring("/session/".length());
+                sessions.remove(sessionId);
+                send(exchange, 200, response(sessionId, JsonNull.INSTANCE));
+            } else if (path.startsWith("/session/")) {
+                String sessionId = path.split("/")[2];
+                if (sessions.containsKey(sessionId)) {
+                    send(exchange, 200, response(sessionId, commandValue(path)));
+                } else {
+                    send(exchange, 404, error(6, "No active session with ID " + sessionId));
+                }
+            } else {
+                send(exchange, 404, error(9, "Unknown command " + method + " " + path));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleGridApiHub(HttpExchange exchange) throws IOException {
+        try {
+            String body = gridApiHubBody;
+            if (body != null) {
+                send(exchange, 200, body);
+            } else {
+                send(exchange, 404, error(9, "Unknown command " + exchange.getRequestURI().getPath()));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void newSession(HttpExchange exchange) throws IOException {
+        JsonElement request = new JsonParser().parse(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        sleep(minLatencyMillis + ThreadLocalRandom.current().nextLong(maxLatencyMillis - minLatencyMillis + 1));
+
+        if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            failed.incrementAndGet();
+            send(exchange, 500, error(13, "Fake hub error"));
+            return;
+        }
+        String sessionId;
+        synchronized (sessions) {
+            if (sessions.size() >= slots) {
+                refused.incrementAndGet();
+                send(exchange, 500, error(13, "Error forwarding the new session Empty pool of VM for setup Capabilities"));
+                return;
+            }
+            sessionId = UUID.randomUUID().toString();
+            sessions.put(sessionId, System.currentTimeMillis());
+        }
+        created.incrementAndGet();
+
+        JsonObject capabilities = new JsonObject();
+        JsonObject desired = request.isJsonObject() && request.getAsJsonObject().has("desiredCapabilities") ?
+                request.getAsJsonObject().getAsJsonObject("desiredCapabilities") : new JsonObject();
+        desired.entrySet().forEach(entry -> capabilities.add(entry.getKey(), entry.getValue()));
+        capabilities.addProperty("browserName", browserName);
+        send(exchange, 200, response(sessionId, capabilities));
+    }
+
+    /**
+     * Value of a session command: a window handle for the window commands, null otherwise
+     */
+    private static JsonElement commandValue(String path) {
+        if (path.endsWith("/window_handles")) {
+            JsonArray handles = new JsonArray();
+            handles.add(new JsonParser().parse("\"window-1\""));
+            return handles;
+        }
+        if (path.endsWith("/window_handle")) {
+            return new JsonParser().parse("\"window-1\"");
+        }
+        return JsonNull.INSTANCE;
+    }
+
+    /**
+     * Grid 4 like status: one node with a slot by session, the slots in use have a session
+     */
+    private JsonObject status() {
+        JsonArray slotArray = new JsonArray();
+        Object[] sessionIds = sessions.keySet().toArray();
+        for (int i = 0; i < slots; i++) {
+            JsonObject stereotype = new JsonObject();
+            stereotype.addProperty("browserName", browserName);
+            JsonObject slot = new JsonObject();
+            slot.add("stereotype", stereotype);
+            if (i < sessionIds.length) {
+                JsonObject session = new JsonObject();
+                session.addProperty("sessionId", sessionIds[i].toString());
+                slot.add("session", session);
+            } else {
+                slot.add("session", JsonNull.INSTANCE);
+            }
+            slotArray.add(slot);
+        }
+        JsonObject node = new JsonObject();
+        node.addProperty("availability", "UP");
+        node.add("slots", slotArray);
+        JsonArray nodes = new JsonArray();
+        nodes.add(node);
+
+        JsonObject value = new JsonObject();
+        value.addProperty("ready", sessionIds.length < slots);
+        value.add("nodes", nodes);
+        JsonObject status = new JsonObject();
+        status.add("value", value);
+        return status;
+    }
+
+    private static JsonObject response(String sessionId, JsonElement value) {
+        JsonObject response = new JsonObject();
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("status", 0);
+        response.add("value", value);
+        return response;
+    }
+
+    private static JsonObject error(int status, String message) {
+        JsonObject value = new JsonObject();
+        value.addProperty("message", message);
+        JsonObject response = new JsonObject();
+        response.addProperty("status", status);
+        response.add("value", value);
+        return response;
+    }
+
+    private static void send(HttpExchange exchange, int code, JsonObject body) throws IOException {
+        send(exchange, code, body.toString());
+    }
+
+    private static void send(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,107 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in for a WebDriver running the DomWait scripts, without browser.
+ * Each executeAsyncScript call answers the next given result, or throws it if it is a RuntimeException;
+ * with no result left it waits for the timeout of the script (its last argument) and answers false like a wait script.
+ * The arguments of the calls are kept. The elements returned by findElements can be given by locator,
+ * for the polling fallback.
+ */
+public class FakeScriptDriver {
+
+    private final Deque<Object> results = new ArrayDeque<>();
+    private final List<Object[]> calls = Collections.synchronizedList(new ArrayList<>());
+    private final Map<By, List<WebElement>> elements = new HashMap<>();
+    private int findCalls = 0;
+    private final WebDriver driver;
+
+    public FakeScriptDriver() {
+        driver = (WebDriver) Proxy.newProxyInstance(FakeScriptDriver.class.getClassLoader(),
+                new Class<?>[] {WebDriver.class, JavascriptExecutor.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "executeAsyncScript":
+                            return executeAsyncScript((Object[]) args[1]);
+                        case "findElements":
+                            findCalls++;
+                            return elements.getOrDefault(args[0], Collections.emptyList());
+                        case "toString":
+                            return "FakeScriptDriver";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * @param pResults answers of the next script calls, a RuntimeException is thrown
+     * @return this driver
+     */
+    public FakeScriptDriver answer(Object... pResults) {
+        results.addAll(Arrays.asList(pResults));
+        return this;
+    }
+
+    /**
+     * @param pLocator (By)
+     * @param pElements found by findElements(pLocator)
+     * @return this driver
+     */
+    public FakeScriptDriver withElements(By pLocator, WebElement... pElements) {
+        elements.put(pLocator, Arrays.asList(pElements));
+        return this;
+    }
+
+    public WebDriver getDriver() {
+        return driver;
+    }
+
+    /**
+     * @return the arguments of each script call
+     */
+    public List<Object[]> getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the timeout given to each script call, its last argument
+     */
+    public List<Long> getChunkTimeouts() {
+        List<Long> timeouts = new ArrayList<>();
+        synchronized (calls) {
+            calls.forEach(args -> timeouts.add(((Number) args[args.length - 1]).longValue()));
+        }
+        return timeouts;
+    }
+
+    public int getFindCalls() {
+        return findCalls;
+    }
+
+    private Object executeAsyncScript(Object[] pArgs) throws InterruptedException {
+        calls.add(pArgs);
+        Object result = results.poll();
+        if (result == null) {
+            Thread.sleep(((Number) pArgs[pArgs.length - 1]).longValue());
+            return Boolean.FALSE;
+        }
+        if (result instanceof RuntimeException) {
+            throw (RuntimeException) result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.zipongo.qa.selenium.commons.metrics.LatencyHistogram;
+import com.zipongo.qa.selenium.commons.metrics.SeleniumMetrics;
+import org.openqa.selenium.WebDriver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure the sessions per second and the acquisition latency of GridFactory against FakeHubs.
+ * Each worker thread gets a chrome instance and quits it, in a loop, until the end of the run.
+ *
+ * Usage (after mvn test-compile):
+ * java -cp target/test-classes:target/classes:(dependencies) com.zipongo.qa.selenium.commons.GridFactoryLoadHarness
+ * [hubs] [threads] [seconds] [slots by hub] [min latency ms] [max latency ms] [error rate]
+ * [max requests in flight] [max requests in flight by hub]
+ */
+public class GridFactoryLoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        int hubCount = intArg(args, 0, 2);
+        int threads = intArg(args, 1, 8);
+        int seconds = intArg(args, 2, 20);
+        int slots = intArg(args, 3, 4);
+        long minLatency = intArg(args, 4, 200);
+        long maxLatency = intArg(args, 5, 800);
+        double errorRate = args.length > 6 ? Double.parseDouble(args[6]) : 0.05;
+        GridFactory.setAdmissionLimits(intArg(args, 7, 0), intArg(args, 8, 0));
+
+        List<FakeHub> hubs = new ArrayList<>();
+        List<String> hubUrls = new ArrayList<>();
+        for (int i = 0; i < hubCount; i++) {
+            FakeHub hub = new FakeHub("chrome").setSlots(slots).setLatency(minLatency, maxLatency).setErrorRate(errorRate);
+            hubs.add(hub);
+            hubUrls.add(hub.getUrl());
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger failures = new AtomicInteger();
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+
+        try (GridFactory gridFactory = new GridFactory(hubUrls)) {
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.execute(() -> {
+                    while (System.currentTimeMillis() < end) {
+                        long start = System.currentTimeMillis();
+                        try {
+                            WebDriver driver = gridFactory.getChromeInstance(null);
+                            latency.record(System.currentTimeMillis() - start);
+                            driver.quit();
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(seconds + 600, TimeUnit.SECONDS);
+
+            System.out.println("hubs=" + hubCount + " threads=" + threads + " seconds=" + seconds + " slots=" + slots
+                    + " latency=" + minLatency + "-" + maxLatency + " ms errorRate=" + errorRate);
+            System.out.println("sessions=" + latency.getCount() + " failures=" + failures.get()
+                    + " sessions/s=" + String.format("%.2f", latency.getCount() / (double) seconds));
+            System.out.println("acquisition " + latency.describe());
+            for (FakeHub hub : hubs) {
+                System.out.println(hub.getUrl() + " created=" + hub.getCreated() + " refused=" + hub.getRefused()
+                        + " failed=" + hub.getFailed() + " open=" + hub.getOpenSessions());
+            }
+            System.out.println("hub latency " + gridFactory.getHubLatencyReport());
+            System.out.println("admission " + GridFactory.getAdmissionUsage());
+            System.out.print(SeleniumMetrics.get().snapshot());
+        } finally {
+            hubs.forEach(FakeHub::close);
+        }
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
@@ -0,0 +1,198 @@
+package com.zipongo.qa.selenium.commons;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Capacity routing of GridFactory against FakeHubs serving grid 3 and grid 4 status bodies:
+ * free slot parsing, most free hub first, and fail fast when every hub is full.
+ */
+public class HubCapacityRoutingTest {
+
+    private static final String GRID_4_STATUS = "{\"value\": {\"ready\": true, \"nodes\": ["
+            + "{\"availability\": \"UP\", \"slots\": ["
+            + "  {\"session\": null, \"stereotype\": {\"browserName\": \"chrome\"}},"
+            + "  {\"session\": null, \"stereotype\": {\"browserName\": \"chrome\"}},"
+            + "  {\"session\": {\"sessionId\": \"1\"}, \"stereotype\": {\"browserName\": \"chrome\"}},"
+            + "  {\"session\": null, \"stereotype\": {\"browserName\": \"firefox\"}}]},"
+            + "{\"availability\": \"DOWN\", \"slots\": ["
+            + "  {\"session\": null, \"stereotype\": {\"browserName\": \"chrome\"}}]}]}}";
+    private static final String GRID_3_STATUS = "{\"status\": 0, \"value\": {\"ready\": true}}";
+    private static final String GRID_3_API_HUB = "{\"success\": true, \"slotCounts\": {\"free\": 2, \"total\": 5}}";
+    private static final String[] MALFORMED_STATUSES = {
+            "not json",
+            "{\"value\": {\"nodes\": [\"node\"]}}",
+            "{\"value\": {\"nodes\": [{\"availability\": null, \"slots\": []}]}}",
+            "{\"value\": {\"nodes\": [{\"slots\": {\"session\": null}}]}}",
+            "{\"value\": {\"nodes\": [{\"slots\": [{\"stereotype\": \"chrome\"}]}]}}",
+            "{\"slotCounts\": {\"free\": \"many\"}}"
+    };
+
+    private final List<FakeHub> hubs = new ArrayList<>();
+
+    @After
+    public void closeHubs() {
+        hubs.forEach(FakeHub::close);
+    }
+
+    @Test
+    public void parsesGrid4SlotsByBrowser() {
+        HubHealthChecker.SlotInventory slots = HubHealthChecker.parseSlotInventory(json(GRID_4_STATUS));
+
+        assertNotNull(slots);
+        assertEquals(2, slots.freeSlots("chrome"));
+        assertEquals(2, slots.freeSlots("CHROME"));
+        assertEquals(1, slots.freeSlots("firefox"));
+        assertEquals(0, slots.freeSlots("safari"));
+    }
+
+    @Test
+    public void parsesGrid3SlotCounts() {
+        HubHealthChecker.SlotInventory slots = HubHealthChecker.parseSlotInventory(json(GRID_3_API_HUB));
+
+        assertNotNull(slots);
+        assertEquals(2, slots.freeSlots("chrome"));
+        assertEquals(2, slots.freeSlots("firefox"));
+    }
+
+    @Test
+    public void statusWithoutSlotsHasNoInventory() {
+        assertNull(HubHealthChecker.parseSlotInventory(json(GRID_3_STATUS)));
+    }
+
+    @Test
+    public void claimedSlotIsNotFreeUntilTheNextCheck() {
+        HubHealthChecker.SlotInventory slots = HubHealthChecker.parseSlotInventory(json(GRID_4_STATUS));
+
+        slots.claim("chrome");
+        slots.claim("chrome");
+        slots.claim("chrome");
+
+        assertEquals(0, slots.freeSlots("chrome"));
+        assertEquals(1, slots.freeSlots("firefox"));
+    }
+
+    @Test
+    public void malformedStatusIsUpWithUnknownCapacity() throws Exception {
+        for (String status : MALFORMED_STATUSES) {
+            URL hub = new URL(startHub().setStatusBody(status).getUrl());
+            try (HubHealthChecker checker = new HubHealthChecker(Collections.singletonList(hub),
+                    new FakeHubClient(), 3600, 3600)) {
+                HubHealthChecker.HubStatus hubStatus = checker.check(hub);
+
+                assertTrue(status, hubStatus.isUp());
+                assertNull(status, hubStatus.getSlotInventory());
+                assertEquals(status, -1, checker.freeSlots(hub, "chrome"));
+            }
+        }
+    }
+
+    @Test
+    public void readsGrid3SlotsFromTheGridApi() throws Exception {
+        URL hub = new URL(startHub().setStatusBody(GRID_3_STATUS).setGridApiHubBody(GRID_3_API_HUB).getUrl());
+        try (HubHealthChecker checker = new HubHealthChecker(Collections.singletonList(hub),
+                new FakeHubClient(), 3600, 3600)) {
+            checker.check(hub);
+
+            assertEquals(2, checker.freeSlots(hub, "chrome"));
+        }
+    }
+
+    @Test
+    public void ordersTheHubsWithTheMostFreeSlotsFirst() throws Exception {
+        FakeHub oneFree = startHub().setSlots(1);
+        FakeHub threeFree = startHub().setSlots(3);
+        FakeHub grid3TwoFree = startHub().setStatusBody(GRID_3_STATUS).setGridApiHubBody(GRID_3_API_HUB);
+        FakeHub malformed = startHub().setStatusBody(MALFORMED_STATUSES[1]);
+        FakeHub full = startHub().setSlots(0);
+        List<FakeHub> fakeHubs = Arrays.asList(oneFree, malformed, full, grid3TwoFree, threeFree);
+
+        try (GridFactory gridFactory = new GridFactory(urlsOf(fakeHubs))) {
+            gridFactory.checkHubs();
+            List<URL> withCapacity = gridFactory.hubsWithCapacity(toUrls(fakeHubs), "chrome");
+
+            // the full hub is left out, the hub with unknown capacity comes last
+            assertEquals(toUrls(Arrays.asList(threeFree, grid3TwoFree, oneFree, malformed)),
+                    gridFactory.orderHubs(withCapacity, "chrome"));
+        }
+    }
+
+    @Test
+    public void failsFastWhenEveryHubIsFull() throws Exception {
+        List<FakeHub> fakeHubs = Arrays.asList(startHub().setSlots(0), startHub().setSlots(0));
+
+        try (GridFactory gridFactory = new GridFactory(urlsOf(fakeHubs))) {
+            // the first background check may not be done yet, a hub never checked has unknown capacity
+            gridFactory.checkHubs();
+            long start = System.currentTimeMillis();
+            try {
+                gridFactory.getChromeInstance(null);
+                fail("Expected a GridFactoryException");
+            } catch (GridFactoryException e) {
+                assertTrue(e.getMessage(), e.isSaturated());
+                assertTrue(e.getMessage(), GridFactoryException.isSaturation(e));
+            }
+            assertTrue("Took " + (System.currentTimeMillis() - start) + " ms",
+                    System.currentTimeMillis() - start < 5000);
+        }
+        for (FakeHub hub : fakeHubs) {
+            // no new session request was sent to a full hub
+            assertEquals(0, hub.getCreated() + hub.getRefused() + hub.getFailed());
+        }
+    }
+
+    private FakeHub startHub() throws IOException {
+        FakeHub hub = new FakeHub("chrome");
+        hubs.add(hub);
+        return hub;
+    }
+
+    private static List<String> urlsOf(List<FakeHub> pHubs) {
+        List<String> urls = new ArrayList<>();
+        pHubs.forEach(hub -> urls.add(hub.getUrl()));
+        return urls;
+    }
+
+    private static List<URL> toUrls(List<FakeHub> pHubs) throws IOException {
+        List<URL> urls = new ArrayList<>();
+        for (FakeHub hub : pHubs) {
+            urls.add(new URL(hub.getUrl()));
+        }
+        return urls;
+    }
+
+    private static JsonObject json(String pBody) {
+        return new JsonParser().parse(pBody).getAsJsonObject();
+    }
+
+    /**
+     * http get of the body like GridFactory, empty string on error
+     */
+    private static class FakeHubClient implements Function<String, String> {
+        @Override
+        public String apply(String pUrl) {
+            try (Scanner scanner = new Scanner(new URL(pUrl).openStream(), "UTF-8")) {
+                return scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+            } catch (IOException e) {
+                return "";
+            }
+        }
+    }
+}
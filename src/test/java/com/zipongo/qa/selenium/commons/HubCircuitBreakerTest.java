@@ -0,0 +1,97 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HubCircuitBreaker transitions: closed, open after the failure threshold, half-open after the open time.
+ */
+public class HubCircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 100;
+
+    private final HubCircuitBreaker breaker = new HubCircuitBreaker(3, OPEN_MILLIS);
+
+    @Test
+    public void staysClosedUnderTheFailureThreshold() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        assertEquals(HubCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void aSuccessResetsTheFailuresInARow() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        assertEquals(HubCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void opensAtTheFailureThreshold() {
+        open();
+
+        assertEquals(HubCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void allowsOneTrialWhenHalfOpen() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(HubCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // the trial is in flight
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void closesWhenTheTrialSucceeds() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.allowRequest();
+
+        breaker.recordSuccess();
+
+        assertEquals(HubCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void opensAgainWhenTheTrialFails() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.allowRequest();
+
+        breaker.recordFailure();
+
+        assertEquals(HubCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void aTrialThatNeverReportsBackDoesNotBlockTheHub() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.allowRequest();
+        Thread.sleep(OPEN_MILLIS + 20);
+
+        assertTrue(breaker.allowRequest());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+    }
+}
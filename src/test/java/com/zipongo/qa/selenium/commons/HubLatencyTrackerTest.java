@@ -0,0 +1,98 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * HubLatencyTracker: p95 of the last samples, timeout derived from it and clamped, fastest hub first.
+ */
+public class HubLatencyTrackerTest {
+
+    private static final long MIN_TIMEOUT_MILLIS = 5000;
+    private static final long MAX_TIMEOUT_MILLIS = 60000;
+
+    private final HubLatencyTracker tracker = new HubLatencyTracker(MIN_TIMEOUT_MILLIS, MAX_TIMEOUT_MILLIS);
+    private final URL hub = url("http://hub-a:4444/wd/hub");
+    private final URL otherHub = url("http://hub-b:4444/wd/hub");
+
+    @Test
+    public void noP95UntilEnoughSamples() {
+        record(hub, "chrome", 1000, 1000, 1000, 1000);
+
+        assertEquals(0, tracker.p95(hub, "chrome"));
+        assertEquals(MAX_TIMEOUT_MILLIS, tracker.timeoutMillis(hub, "chrome"));
+    }
+
+    @Test
+    public void p95OfTheSamples() {
+        for (long millis = 100; millis <= 2000; millis += 100) {
+            tracker.record(hub, "chrome", millis);
+        }
+
+        // 20 samples, the 19th smallest
+        assertEquals(1900, tracker.p95(hub, "chrome"));
+        assertEquals(0, tracker.p95(hub, "firefox"));
+    }
+
+    @Test
+    public void p95OfTheLastFiftySamplesOnly() {
+        for (int i = 0; i < 50; i++) {
+            tracker.record(hub, "chrome", 30000);
+        }
+        for (int i = 0; i < 50; i++) {
+            tracker.record(hub, "chrome", 4000);
+        }
+
+        assertEquals(4000, tracker.p95(hub, "chrome"));
+    }
+
+    @Test
+    public void timeoutIsTwiceTheP95() {
+        record(hub, "chrome", 4000, 4000, 4000, 4000, 4000);
+
+        assertEquals(8000, tracker.timeoutMillis(hub, "chrome"));
+    }
+
+    @Test
+    public void timeoutIsClampedToTheMinimum() {
+        record(hub, "chrome", 500, 500, 500, 500, 500);
+
+        assertEquals(MIN_TIMEOUT_MILLIS, tracker.timeoutMillis(hub, "chrome"));
+    }
+
+    @Test
+    public void timeoutIsClampedToTheMaximum() {
+        record(hub, "chrome", 45000, 45000, 45000, 45000, 45000);
+
+        assertEquals(MAX_TIMEOUT_MILLIS, tracker.timeoutMillis(hub, "chrome"));
+    }
+
+    @Test
+    public void fastestHubFirstAndNeverMeasuredHubBeforeAll() {
+        URL newHub = url("http://hub-c:4444/wd/hub");
+        record(hub, "chrome", 9000);
+        record(otherHub, "chrome", 3000);
+
+        assertEquals(Arrays.asList(newHub, otherHub, hub),
+                tracker.fastestFirst(Arrays.asList(hub, otherHub, newHub), "chrome"));
+    }
+
+    private void record(URL pHub, String pBrowserName, long... pMillis) {
+        for (long millis : pMillis) {
+            tracker.record(pHub, pBrowserName, millis);
+        }
+    }
+
+    private static URL url(String pUrl) {
+        try {
+            return new URL(pUrl);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
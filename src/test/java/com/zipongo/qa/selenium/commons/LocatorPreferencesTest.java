@@ -0,0 +1,107 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.By;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LocatorPreferences: the locator that found the element last comes first, per call site, and is kept in a file.
+ */
+public class LocatorPreferencesTest {
+
+    private static final By ID = By.id("save");
+    private static final By NAME = By.name("save");
+    private static final By CSS = By.cssSelector("button.save");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restoreFile() {
+        LocatorPreferences.setFile(new File("./target/locator-preferences.properties"));
+    }
+
+    @Test
+    public void keepsTheGivenOrderWithoutPreference() {
+        LocatorPreferences.setFile(null);
+
+        assertEquals(Arrays.asList(ID, NAME, CSS), LocatorPreferences.order("Page.save:1", ID, NAME, CSS));
+    }
+
+    @Test
+    public void preferredLocatorComesFirst() {
+        LocatorPreferences.setFile(null);
+
+        LocatorPreferences.remember("Page.save:1", CSS);
+
+        assertEquals(Arrays.asList(CSS, ID, NAME), LocatorPreferences.order("Page.save:1", ID, NAME, CSS));
+        // the preference is per call site
+        assertEquals(Arrays.asList(ID, NAME, CSS), LocatorPreferences.order("Page.save:2", ID, NAME, CSS));
+    }
+
+    @Test
+    public void preferenceOfALocatorNotGivenIsIgnored() {
+        LocatorPreferences.setFile(null);
+        LocatorPreferences.remember("Page.save:1", By.xpath("//button"));
+
+        assertEquals(Arrays.asList(ID, NAME), LocatorPreferences.order("Page.save:1", ID, NAME));
+    }
+
+    @Test
+    public void preferencesAreKeptBetweenRuns() throws Exception {
+        File file = new File(folder.getRoot(), "preferences/locators.properties");
+        LocatorPreferences.setFile(file);
+        LocatorPreferences.remember("Page.save:1", NAME);
+        LocatorPreferences.remember("Page.cancel:7", CSS);
+
+        // a new run reads the file
+        LocatorPreferences.setFile(file);
+
+        assertEquals(Arrays.asList(NAME, ID, CSS), LocatorPreferences.order("Page.save:1", ID, NAME, CSS));
+        assertEquals(Arrays.asList(CSS, ID), LocatorPreferences.order("Page.cancel:7", ID, CSS));
+        // written at once, without temp file left
+        assertArrayEquals(new String[] {"locators.properties"}, file.getParentFile().list());
+    }
+
+    @Test
+    public void laterPreferenceReplacesTheFormerOne() {
+        File file = new File(folder.getRoot(), "locators.properties");
+        LocatorPreferences.setFile(file);
+        LocatorPreferences.remember("Page.save:1", NAME);
+        LocatorPreferences.remember("Page.save:1", CSS);
+
+        LocatorPreferences.setFile(file);
+
+        assertEquals(Arrays.asList(CSS, ID, NAME), LocatorPreferences.order("Page.save:1", ID, NAME, CSS));
+    }
+
+    @Test
+    public void inMemoryPreferencesAreNotWritten() {
+        File file = new File(folder.getRoot(), "locators.properties");
+        LocatorPreferences.setFile(file);
+        LocatorPreferences.setFile(null);
+
+        LocatorPreferences.remember("Page.save:1", NAME);
+
+        assertFalse(file.exists());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void callSiteIsTheCallerOfLocatorPreferences() {
+        String callSite = LocatorPreferences.callSite();
+
+        assertTrue(callSite,
+                callSite.startsWith(LocatorPreferencesTest.class.getName() + ".callSiteIsTheCallerOfLocatorPreferences:"));
+    }
+}
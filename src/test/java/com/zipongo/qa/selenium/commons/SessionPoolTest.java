@@ -0,0 +1,182 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SessionPool against FakeHubs: lease, release with reset, reuse, and quit when the reset fails.
+ * The factory only creates the sessions asked by the test thread, so the background refills do not race the tests.
+ */
+public class SessionPoolTest {
+
+    private static final long HEARTBEAT_SECONDS = 3600;
+
+    private final List<FakeHub> hubs = new ArrayList<>();
+    private final TestSessionFactory sessionFactory = new TestSessionFactory(false);
+    private final SessionPool pool = new SessionPool(sessionFactory, 1, HEARTBEAT_SECONDS);
+
+    @After
+    public void close() {
+        pool.close();
+        hubs.forEach(FakeHub::close);
+    }
+
+    @Test
+    public void leasesANewSessionWhenNoneIsIdle() throws Exception {
+        FakeHub hub = sessionFactory.use(startHub());
+
+        GridFactory.WebDriverHubURL session = pool.lease(DesiredCapabilities.chrome());
+
+        assertEquals(hub.getUrl(), session.getUrl().toString());
+        assertEquals(1, hub.getCreated());
+    }
+
+    @Test
+    public void refillsThePoolInBackground() throws Exception {
+        TestSessionFactory refillingFactory = new TestSessionFactory(true);
+        FakeHub hub = refillingFactory.use(startHub());
+        try (SessionPool refillingPool = new SessionPool(refillingFactory, 1, HEARTBEAT_SECONDS)) {
+            WebDriver driver = refillingPool.lease(DesiredCapabilities.chrome()).getWebDriver();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (hub.getCreated() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, hub.getCreated());
+            // the idle session created in background is leased
+            assertNotSame(driver, refillingPool.lease(DesiredCapabilities.chrome()).getWebDriver());
+        }
+    }
+
+    @Test
+    public void releasedSessionIsResetAndLeasedAgain() throws Exception {
+        FakeHub hub = sessionFactory.use(startHub());
+        WebDriver driver = pool.lease(DesiredCapabilities.chrome()).getWebDriver();
+
+        assertTrue(pool.release(driver));
+
+        assertSame(driver, pool.lease(DesiredCapabilities.chrome()).getWebDriver());
+        assertEquals(1, hub.getCreated());
+        assertEquals(1, hub.getOpenSessions());
+    }
+
+    @Test
+    public void idleSessionIsOnlyLeasedForTheSameCapabilities() throws Exception {
+        FakeHub hub = sessionFactory.use(startHub());
+        WebDriver chrome = pool.lease(DesiredCapabilities.chrome()).getWebDriver();
+        pool.release(chrome);
+
+        DesiredCapabilities headless = DesiredCapabilities.chrome();
+        headless.setCapability("headless", true);
+
+        assertNotSame(chrome, pool.lease(headless).getWebDriver());
+        assertEquals(2, hub.getCreated());
+    }
+
+    @Test
+    public void sessionIsQuitWhenThePoolIsFull() throws Exception {
+        FakeHub hub = sessionFactory.use(startHub());
+        WebDriver first = pool.lease(DesiredCapabilities.chrome()).getWebDriver();
+        WebDriver second = pool.lease(DesiredCapabilities.chrome()).getWebDriver();
+
+        pool.release(first);
+        pool.release(second);
+
+        // one idle session is kept, the other one is quit
+        assertEquals(1, hub.getOpenSessions());
+    }
+
+    @Test
+    public void sessionIsQuitWhenTheResetFails() throws Exception {
+        FakeHub lostHub = sessionFactory.use(startHub());
+        WebDriver driver = pool.lease(DesiredCapabilities.chrome()).getWebDriver();
+        lostHub.close();
+        FakeHub hub = sessionFactory.use(startHub());
+
+        assertTrue(pool.release(driver));
+
+        assertNotSame(driver, pool.lease(DesiredCapabilities.chrome()).getWebDriver());
+        assertEquals(1, hub.getCreated());
+    }
+
+    @Test
+    public void driverNotLeasedFromThePoolIsNotReleased() throws Exception {
+        FakeHub hub = startHub();
+        WebDriver driver = new RemoteWebDriver(new URL(hub.getUrl()), DesiredCapabilities.chrome());
+
+        assertFalse(pool.release(driver));
+        assertEquals(1, hub.getOpenSessions());
+    }
+
+    @Test
+    public void closeQuitsTheIdleSessions() throws Exception {
+        FakeHub hub = sessionFactory.use(startHub());
+        pool.release(pool.lease(DesiredCapabilities.chrome()).getWebDriver());
+
+        pool.close();
+
+        assertEquals(0, hub.getOpenSessions());
+    }
+
+    @Test
+    public void resetFailsOnALostSession() throws Exception {
+        FakeHub hub = startHub();
+        WebDriver driver = new RemoteWebDriver(new URL(hub.getUrl()), DesiredCapabilities.chrome());
+        assertTrue(SessionPool.resetSession(driver));
+
+        hub.close();
+
+        assertFalse(SessionPool.resetSession(driver));
+    }
+
+    private FakeHub startHub() throws IOException {
+        FakeHub hub = new FakeHub("chrome");
+        hubs.add(hub);
+        return hub;
+    }
+
+    /**
+     * Create sessions on the current hub, only for the test thread when it is not allowed to refill the pool
+     */
+    private static class TestSessionFactory implements SessionPool.SessionFactory {
+        private final Thread testThread = Thread.currentThread();
+        private final boolean refill;
+        private volatile FakeHub hub;
+
+        TestSessionFactory(boolean pRefill) {
+            this.refill = pRefill;
+        }
+
+        FakeHub use(FakeHub pHub) {
+            hub = pHub;
+            return pHub;
+        }
+
+        @Override
+        public GridFactory.WebDriverHubURL create(DesiredCapabilities capabilities) throws GridFactoryException {
+            if (!refill && Thread.currentThread() != testThread) {
+                throw new GridFactoryException("No refill in this test");
+            }
+            try {
+                URL url = new URL(hub.getUrl());
+                return new GridFactory.WebDriverHubURL(new RemoteWebDriver(url, capabilities), url);
+            } catch (IOException e) {
+                throw new GridFactoryException(e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.zipongo.qa.selenium.commons;
+
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.WebDriverWait;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WaitPolicy: the delays of the BackoffSleeper, the copies, and a wait polling with the policy.
+ */
+public class WaitPolicyTest {
+
+    @Test
+    public void delayGrowsByTheFactorUpToTheMaxPoll() {
+        assertEquals(Arrays.asList(50L, 100L, 200L, 400L, 800L, 1000L, 1000L), polls(WaitPolicy.DEFAULT, 7));
+    }
+
+    @Test
+    public void delayIsRoundedUp() {
+        assertEquals(Arrays.asList(10L, 15L, 23L, 35L, 40L), polls(new WaitPolicy(10, 1.5, 40), 5));
+    }
+
+    @Test
+    public void fixedDelayWithAFactorOfOne() {
+        assertEquals(Arrays.asList(500L, 500L, 500L), polls(WaitPolicy.FIXED_500_MS, 3));
+    }
+
+    @Test
+    public void eachSleeperStartsFromTheInitialPoll() {
+        polls(WaitPolicy.DEFAULT, 5);
+
+        assertEquals(Arrays.asList(50L, 100L), polls(WaitPolicy.DEFAULT, 2));
+    }
+
+    @Test
+    public void copiesKeepTheOtherSettings() {
+        WaitPolicy policy = WaitPolicy.DEFAULT.withInitialPollMillis(2000);
+        assertEquals(2000, policy.getInitialPollMillis());
+        assertEquals(2.0, policy.getBackoffFactor(), 0);
+        assertEquals(2000, policy.getMaxPollMillis());
+
+        policy = WaitPolicy.DEFAULT.withMaxPollMillis(20);
+        assertEquals(20, policy.getInitialPollMillis());
+        assertEquals(20, policy.getMaxPollMillis());
+
+        assertEquals(Arrays.asList(50L, 150L, 450L, 1000L), polls(WaitPolicy.DEFAULT.withBackoffFactor(3), 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void factorUnderOneIsRefused() {
+        new WaitPolicy(50, 0.5, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxPollUnderTheInitialPollIsRefused() {
+        new WaitPolicy(500, 2, 100);
+    }
+
+    @Test
+    public void waitSeesAConditionTrueSoonWithoutWaitingAFixedPoll() {
+        AtomicInteger polls = new AtomicInteger();
+        WebDriverWait wait = WaitPolicy.DEFAULT.newWait(driver(), 5);
+
+        long start = System.currentTimeMillis();
+        wait.until(driver -> polls.incrementAndGet() == 3);
+
+        // 50 + 100 ms of sleep instead of 2 x 500 ms
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(3, polls.get());
+        assertTrue("Took " + elapsed + " ms", elapsed >= 150 && elapsed < 900);
+    }
+
+    private static List<Long> polls(WaitPolicy pPolicy, int pCount) {
+        WaitPolicy.BackoffSleeper sleeper = (WaitPolicy.BackoffSleeper) pPolicy.newSleeper();
+        List<Long> polls = new ArrayList<>();
+        for (int i = 0; i < pCount; i++) {
+            polls.add(sleeper.nextPollMillis());
+        }
+        return polls;
+    }
+
+    private static WebDriver driver() {
+        return (WebDriver) Proxy.newProxyInstance(WaitPolicyTest.class.getClassLoader(), new Class<?>[] {WebDriver.class},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,47 @@
+package com.zipongo.qa.selenium.commons.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AtomicFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replacesTheFileAndLeavesNoTempFile() throws IOException {
+        File file = new File(folder.getRoot(), "sub/metrics.txt");
+
+        AtomicFiles.write(file, "first".getBytes(StandardCharsets.UTF_8));
+        AtomicFiles.write(file, "second".getBytes(StandardCharsets.UTF_8));
+
+        assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file.toPath()));
+        assertEquals(1, file.getParentFile().list().length);
+    }
+
+    @Test
+    public void deletesTheTempFileWhenTheMoveFails() throws IOException {
+        // a non empty directory cannot be replaced by a file
+        File file = folder.newFolder("target.txt");
+        assertEquals(true, new File(file, "child").createNewFile());
+
+        try {
+            AtomicFiles.write(file, "content".getBytes(StandardCharsets.UTF_8));
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertEquals(1, folder.getRoot().list().length);
+    }
+}